@@ -4,14 +4,32 @@ from socket import *
 cnt = 0
 s = socket(AF_INET, SOCK_DGRAM)
 
+# Optionally pack up to N newline-delimited events into each datagram, e.g.:
+#   python feedudp.py -b 16 10k.log
+batch = 1
+if len(sys.argv) > 3 and sys.argv[1] == '-b':
+    batch = int(sys.argv[2])
+
+# Stay under a typical Ethernet MTU so batched datagrams don't get fragmented.
+max_datagram = 1400
+
+def send(lines):
+    b = ''.join(lines).encode('ascii')
+    print('sending: ' + str(b).rstrip())
+    s.sendto(b, ('localhost', 10666))
+    time.sleep(0.0003)
+
 start = time.time()
 with open(sys.argv[-1]) as f:
+    pending = []
     for line in f.readlines():
-        b = line.encode('ascii')
-        print('sending: ' + str(b).rstrip())
-        s.sendto(line.encode('ascii'), ('localhost', 10666))
+        if pending and (len(pending) >= batch or sum(map(len, pending)) + len(line) > max_datagram):
+            send(pending)
+            pending = []
+        pending.append(line)
         cnt = cnt + 1
-        time.sleep(0.0003)
+    if pending:
+        send(pending)
 
 finish = time.time()
 print("SENT " + str(cnt) + " events [" + str(cnt/(finish-start)) + " ev/s]")
@@ -0,0 +1,172 @@
+package io.sisu.groom;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * A small HTTP server for watching and tuning a running groom.
+ *
+ * <ul>
+ *   <li>{@code GET /metrics} serves every metric in the Prometheus text format.
+ *   <li>{@code GET /admin/pipeline} shows the batching settings, each lane's current batch size
+ *       and window, and how much is queued along the way, as JSON.
+ *   <li>{@code POST /admin/batching?buffer-size=N&flush-interval=S} changes the batch size and
+ *       flush interval of every lane without a restart, so nothing in flight is lost. Either can
+ *       be left out to keep its current value. Responds with the pipeline as it is afterwards.
+ * </ul>
+ *
+ * <p>Nothing here is authenticated, so it binds to the loopback address unless told otherwise.
+ */
+public class AdminServer implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(AdminServer.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final Config config;
+  private final List<BatchController> controllers;
+  private final Supplier<Map<String, Object>> queues;
+  private DisposableServer server;
+
+  private AdminServer(
+      Config config, List<BatchController> controllers, Supplier<Map<String, Object>> queues) {
+    this.config = config;
+    this.controllers = controllers;
+    this.queues = queues;
+  }
+
+  /**
+   * Start serving on the configured host and port.
+   *
+   * @param config groom Config, whose batching settings are updated along with the lanes
+   * @param registry registry to serve metrics from
+   * @param controllers every lane's batch controller, in lane order
+   * @param queues how much is waiting at each stage, by name
+   * @return an AdminServer that can be closed to stop serving
+   */
+  public static AdminServer bind(
+      Config config,
+      PrometheusMeterRegistry registry,
+      List<BatchController> controllers,
+      Supplier<Map<String, Object>> queues) {
+    AdminServer admin = new AdminServer(config, controllers, queues);
+    admin.server =
+        HttpServer.create()
+            .host(config.httpHost)
+            .port(config.httpPort)
+            .route(
+                routes ->
+                    routes
+                        .get(
+                            "/metrics",
+                            (req, res) ->
+                                res.header(
+                                        HttpHeaderNames.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004)
+                                    .sendString(Mono.fromSupplier(registry::scrape)))
+                        .get("/admin/pipeline", (req, res) -> json(res, admin.pipeline()))
+                        .post(
+                            "/admin/batching",
+                            (req, res) -> {
+                              try {
+                                admin.batching(new QueryStringDecoder(req.uri()).parameters());
+                              } catch (IllegalArgumentException e) {
+                                return res.status(HttpResponseStatus.BAD_REQUEST)
+                                    .sendString(Mono.just(e.getMessage() + "\n"));
+                              }
+                              return json(res, admin.pipeline());
+                            }))
+            .bindNow(Duration.ofSeconds(15));
+    logger.info("admin server listening on {}:{}", config.httpHost, admin.port());
+    return admin;
+  }
+
+  /** @return the port being served on */
+  public int port() {
+    return server.port();
+  }
+
+  /** @return the batching settings, each lane's controller and the queues */
+  synchronized Map<String, Object> pipeline() {
+    Map<String, Object> pipeline = new LinkedHashMap<>();
+    pipeline.put("bufferSize", config.bufferSize);
+    pipeline.put("flushInterval", config.flushInterval);
+    pipeline.put("adaptiveBatching", config.adaptiveBatching);
+    List<Map<String, Object>> lanes = new ArrayList<>(controllers.size());
+    for (int lane = 0; lane < controllers.size(); lane++) {
+      Map<String, Object> state = new LinkedHashMap<>();
+      state.put("lane", lane);
+      state.put("batchSize", controllers.get(lane).batchSize());
+      state.put("windowMs", TimeUnit.NANOSECONDS.toMillis(controllers.get(lane).windowNanos()));
+      lanes.add(state);
+    }
+    pipeline.put("lanes", lanes);
+    pipeline.put("queues", queues.get());
+    return pipeline;
+  }
+
+  /**
+   * Apply new batching settings to every lane.
+   *
+   * @param params request parameters, optionally holding {@code buffer-size} and {@code
+   *     flush-interval}
+   * @throws IllegalArgumentException if a setting is malformed or out of range
+   */
+  synchronized void batching(Map<String, List<String>> params) {
+    final int bufferSize = param(params, Config.KEY_BATCH_SIZE, config.bufferSize);
+    final int flushInterval = param(params, Config.KEY_WINDOW_TIMEOUT, config.flushInterval);
+    if (flushInterval < Config.MIN_FLUSH_INTERVAL) {
+      throw new IllegalArgumentException("flush interval must be positive");
+    }
+    for (BatchController controller : controllers) {
+      controller.configure(bufferSize, Duration.ofSeconds(flushInterval));
+    }
+    config.bufferSize = bufferSize;
+    config.flushInterval = flushInterval;
+    logger.info("batching changed to {} events / {}s", bufferSize, flushInterval);
+  }
+
+  private static int param(Map<String, List<String>> params, String key, int current) {
+    final List<String> values = params.getOrDefault(key, Collections.emptyList());
+    if (values.isEmpty()) {
+      return current;
+    }
+    try {
+      return Integer.parseInt(values.get(0));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(key + " must be a whole number");
+    }
+  }
+
+  private static Publisher<Void> json(HttpServerResponse res, Map<String, Object> body) {
+    try {
+      return res.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+          .sendString(Mono.just(mapper.writeValueAsString(body)));
+    } catch (JsonProcessingException e) {
+      return res.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send();
+    }
+  }
+
+  @Override
+  public void close() {
+    server.disposeNow(Duration.ofSeconds(15));
+  }
+}
@@ -0,0 +1,148 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how big a writer lane's batches get and how long a partial batch may wait, steering both
+ * towards a target commit latency.
+ *
+ * <p>Every stored batch reports how many events it held and how long its write took. A write over
+ * the target shrinks the batch size by a quarter; a nearly full batch written well under the
+ * target grows it by an eighth (but by at least half the minimum size), since a full batch that
+ * commits quickly means the database can take more per transaction. Growing more gently than it
+ * shrinks keeps the size from swinging past the target. The flush window follows the batch size,
+ * so small batches aren't kept waiting for events they no longer need. Both stay within fixed
+ * bounds and are published as gauges tagged by lane.
+ *
+ * <p>The starting size and longest window can also be {@link #configure changed} while running,
+ * which adaptive batching then carries on from.
+ *
+ * <p>Only the lane's writer reports and only its drainer reads, so plain volatiles are enough.
+ */
+public class BatchController {
+  /** Smallest batch the controller will shrink to. */
+  public static final int MIN_SIZE = 250;
+  /** Largest batch the controller will grow to. */
+  public static final int MAX_SIZE = 10_000;
+  /** Shortest flush window the controller will shrink to. */
+  public static final Duration MIN_WINDOW = Duration.ofMillis(50);
+
+  private static final double SHRINK = 0.75;
+  private static final double FULL = 0.9;
+  private static final double HEADROOM = 0.75;
+
+  private final boolean adaptive;
+  private volatile int initialSize;
+  private volatile long maxWindowNanos;
+  private final long targetNanos;
+
+  private volatile int size;
+  private volatile long windowNanos;
+
+  /**
+   * A controller that never changes its mind.
+   *
+   * @param size batch size
+   * @param window flush window
+   * @return a fixed controller
+   */
+  public static BatchController fixed(int size, Duration window) {
+    return new BatchController(false, size, window, Duration.ZERO);
+  }
+
+  /**
+   * Build the controller for a lane from the configuration, with {@code --buffer-size} as the
+   * starting batch size and {@code --flush-interval} as the longest window.
+   *
+   * @param config configuration
+   * @param lane writer lane, for tagging metrics
+   * @return a controller, adaptive unless disabled
+   */
+  public static BatchController forLane(Config config, int lane) {
+    BatchController controller =
+        new BatchController(
+            config.adaptiveBatching,
+            config.bufferSize,
+            Duration.ofSeconds(config.flushInterval),
+            Duration.ofMillis(config.targetCommitMs));
+    Tags tags = Tags.of("lane", String.valueOf(lane));
+    Metrics.gauge("batch_size_target", tags, controller, BatchController::batchSize);
+    Metrics.gauge(
+        "batch_window_ms",
+        tags,
+        controller,
+        c -> TimeUnit.NANOSECONDS.toMillis(c.windowNanos()));
+    return controller;
+  }
+
+  BatchController(boolean adaptive, int size, Duration window, Duration target) {
+    this.adaptive = adaptive;
+    this.initialSize = size;
+    this.maxWindowNanos = window.toNanos();
+    this.targetNanos = target.toNanos();
+    this.size = size;
+    this.windowNanos = maxWindowNanos;
+  }
+
+  /** @return the number of events at which the next batch is emitted */
+  public int batchSize() {
+    return size;
+  }
+
+  /** @return how long the next batch may wait for more events once it has its first */
+  public long windowNanos() {
+    return windowNanos;
+  }
+
+  /**
+   * Start over from a new batch size and flush window, as if they'd been configured from the
+   * start. Takes effect from the next batch.
+   *
+   * @param size batch size, between {@link #MIN_SIZE} and {@link #MAX_SIZE}
+   * @param window longest flush window
+   * @throws IllegalArgumentException if either is out of range
+   */
+  public void configure(int size, Duration window) {
+    if (size < MIN_SIZE || size > MAX_SIZE) {
+      throw new IllegalArgumentException(
+          "batch size must be between " + MIN_SIZE + " and " + MAX_SIZE);
+    }
+    if (window.isNegative()) {
+      throw new IllegalArgumentException("flush window must not be negative");
+    }
+    initialSize = size;
+    maxWindowNanos = window.toNanos();
+    this.size = size;
+    windowNanos = maxWindowNanos;
+  }
+
+  /**
+   * Adjust to how long a batch took to store.
+   *
+   * @param events number of events the batch held
+   * @param nanos time taken to write it, including any retries
+   */
+  public void stored(int events, long nanos) {
+    if (!adaptive) {
+      return;
+    }
+    final int current = size;
+    int next = current;
+    if (nanos > targetNanos) {
+      next = Math.max(MIN_SIZE, (int) (current * SHRINK));
+    } else if (events >= current * FULL && nanos < targetNanos * HEADROOM) {
+      next = Math.min(MAX_SIZE, current + Math.max(MIN_SIZE / 2, current / 8));
+    }
+    if (next != current) {
+      final long maxWindow = maxWindowNanos;
+      size = next;
+      windowNanos =
+          Math.max(
+              Math.min(MIN_WINDOW.toNanos(), maxWindow),
+              Math.min(maxWindow, maxWindow * next / initialSize));
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package io.sisu.groom;
+
+import io.sisu.util.BulkQuery;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.neo4j.driver.Bookmark;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.AsyncTransaction;
+import org.neo4j.driver.async.ResultCursor;
+import org.neo4j.driver.summary.ResultSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * A writer lane's connection to the database, kept open across batches.
+ *
+ * <p>Every batch is written in one transaction on the same long-lived session, so consecutive
+ * batches are causally chained by the session's bookmark without paying for session setup each
+ * time. All of a batch's statements are sent before waiting on any of their results, so the whole
+ * transaction costs one round trip plus the commit instead of one per statement.
+ *
+ * <p>If a write fails the session is thrown away, and the next one starts from the bookmark of the
+ * last batch that did commit.
+ *
+ * <p>Meant to be used by one writer at a time.
+ */
+public class BatchWriter implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(BatchWriter.class);
+
+  private final Database db;
+  private AsyncSession session;
+  private Bookmark bookmark;
+
+  public BatchWriter(Database db) {
+    this.db = db;
+  }
+
+  private AsyncSession session() {
+    if (session == null) {
+      session = db.asyncSession(bookmark);
+    }
+    return session;
+  }
+
+  /**
+   * Write a batch in a single transaction.
+   *
+   * @param bulkQuery the batch's compiled statements, run in order
+   * @return a Mono of the number of events written, once committed
+   */
+  public Mono<Integer> write(BulkQuery bulkQuery) {
+    return Mono.defer(
+            () -> {
+              final AsyncSession session = session();
+              return Mono.fromCompletionStage(
+                      session.writeTransactionAsync(tx -> pipelined(tx, bulkQuery)))
+                  .doOnSuccess(ignored -> bookmark = session.lastBookmark());
+            })
+        .doOnSuccess(
+            nodes ->
+                logger.info(
+                    "wrote {} events to database, creating {} nodes", bulkQuery.size, nodes))
+        .doOnError(
+            e -> {
+              logger.error("writeEvents ERROR!: {}", e.getLocalizedMessage());
+              discard();
+            })
+        .map(ignored -> bulkQuery.size);
+  }
+
+  private static CompletionStage<Integer> pipelined(AsyncTransaction tx, BulkQuery bulkQuery) {
+    List<CompletableFuture<ResultSummary>> summaries = new ArrayList<>(bulkQuery.queries.size());
+    // Send every statement up front; Bolt still runs them in order.
+    for (Query query : bulkQuery.queries) {
+      summaries.add(
+          tx.runAsync(query).thenCompose(ResultCursor::consumeAsync).toCompletableFuture());
+    }
+    return CompletableFuture.allOf(summaries.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            ignored ->
+                summaries.stream()
+                    .mapToInt(summary -> summary.join().counters().nodesCreated())
+                    .sum());
+  }
+
+  private void discard() {
+    if (session != null) {
+      session.closeAsync();
+      session = null;
+    }
+  }
+
+  /**
+   * Close the session without waiting, as this may well be called from one of the driver's own
+   * threads.
+   */
+  @Override
+  public void close() {
+    discard();
+  }
+}
@@ -2,6 +2,9 @@ package io.sisu.groom;
 
 import io.sisu.groom.exceptions.ConfigException;
 import io.sisu.groom.exceptions.ConfigException.Problem;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentGroup;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -28,21 +31,95 @@ public class Config {
   protected static final String KEY_USE_ENCRYPTION = "tls";
   protected static final boolean DEFAULT_USE_ENCRYPTION = true;
 
+  protected static final String KEY_WRITERS = "writers";
+  protected static final int DEFAULT_WRITERS = 1;
+
+  protected static final String KEY_SINK = "sink";
+  protected static final String DEFAULT_SINK = EventSink.Sink.NEO4J.toString();
+
   protected static final String KEY_UDP_HOST = "udp-host";
   protected static final String DEFAULT_UDP_HOST = "127.0.0.1";
 
   protected static final String KEY_UDP_PORT = "udp-port";
   protected static final int DEFAULT_UDP_PORT = 10666;
 
+  protected static final String KEY_UDP_LISTENERS = "udp-listeners";
+  protected static final int DEFAULT_UDP_LISTENERS = 1;
+
+  protected static final String KEY_LOSS_REPORT_INTERVAL = "loss-report-interval";
+  protected static final int DEFAULT_LOSS_REPORT_INTERVAL = 60;
+
+  protected static final String KEY_SESSION_IDLE_TIMEOUT = "session-idle-timeout";
+  protected static final int DEFAULT_SESSION_IDLE_TIMEOUT = 600;
+
   protected static final String KEY_BATCH_SIZE = "buffer-size";
   protected static final int DEFAULT_BATCH_SIZE = 5000;
 
   protected static final String KEY_WINDOW_TIMEOUT = "flush-interval";
   protected static final int DEFAULT_FLUSH_INTERVAL = 5;
+  protected static final int MIN_FLUSH_INTERVAL = 1;
+
+  protected static final String KEY_ADAPTIVE_BATCHING = "adaptive-batching";
+  protected static final boolean DEFAULT_ADAPTIVE_BATCHING = true;
+
+  protected static final String KEY_TARGET_COMMIT_MS = "target-commit-ms";
+  protected static final int DEFAULT_TARGET_COMMIT_MS = 1000;
+
+  protected static final String KEY_QUEUE_SIZE = "queue-size";
+  protected static final int DEFAULT_QUEUE_SIZE = 65_536;
+
+  protected static final String KEY_OVERFLOW_POLICY = "overflow-policy";
+  protected static final String DEFAULT_OVERFLOW_POLICY = Handoff.Overflow.DROP_NEWEST.toString();
+
+  protected static final String KEY_OFF_HEAP_QUEUE = "off-heap-queue";
+  protected static final boolean DEFAULT_OFF_HEAP_QUEUE = false;
+
+  protected static final String KEY_COALESCE_MOVES = "coalesce-moves";
+  protected static final boolean DEFAULT_COALESCE_MOVES = true;
+
+  protected static final String KEY_REORDER_MS = "reorder-ms";
+  protected static final int DEFAULT_REORDER_MS = 50;
+
+  protected static final String KEY_REORDER_DEPTH = "reorder-depth";
+  protected static final int DEFAULT_REORDER_DEPTH = 1024;
+
+  protected static final String KEY_SPOOL_DIR = "spool-dir";
+  protected static final String DEFAULT_SPOOL_DIR = null;
+
+  protected static final String KEY_SPOOL_SEGMENT_MB = "spool-segment-mb";
+  protected static final int DEFAULT_SPOOL_SEGMENT_MB = 64;
 
-  private static final ArgumentParser parser = ArgumentParsers.newFor("groom").build();
+  protected static final String KEY_STATE_INTERVAL = "state-interval";
+  protected static final int DEFAULT_STATE_INTERVAL = 1;
+
+  protected static final String KEY_STATE_BACKLOG = "state-backlog";
+  protected static final int DEFAULT_STATE_BACKLOG = 10_000;
+
+  protected static final String KEY_HTTP_HOST = "http-host";
+  protected static final String DEFAULT_HTTP_HOST = "127.0.0.1";
+
+  protected static final String KEY_HTTP_PORT = "http-port";
+  protected static final int DEFAULT_HTTP_PORT = 0;
+
+  public static final String COMMAND_INGEST = "ingest";
+
+  protected static final String KEY_INGEST_FILES = "files";
+
+  protected static final String KEY_INGEST_THREADS = "threads";
+  protected static final int DEFAULT_INGEST_THREADS = Runtime.getRuntime().availableProcessors();
+
+  protected static final String KEY_INGEST_SESSION = "session";
+  protected static final String DEFAULT_INGEST_SESSION = null;
+
+  private static final ArgumentParser parser = newParser("groom", false);
+  private static final ArgumentParser ingestParser = newParser("groom " + COMMAND_INGEST, true);
+
+  private static ArgumentParser newParser(String name, boolean ingest) {
+    ArgumentParser parser = ArgumentParsers.newFor(name).build();
+    if (!ingest) {
+      parser.epilog("run '" + name + " " + COMMAND_INGEST + " --help' to load recorded telemetry");
+    }
 
-  static {
     ArgumentGroup hostGroup = parser.addArgumentGroup("Neo4j Host Settings");
     hostGroup
         .addArgument("--" + KEY_BOLT_URI)
@@ -55,41 +132,173 @@ public class Config {
         .help("Ues a TLS Bolt connection?")
         .setDefault(DEFAULT_USE_ENCRYPTION);
     hostGroup.addArgument("--" + KEY_DB_NAME).setDefault(DEFAULT_DB_NAME);
+    hostGroup
+        .addArgument("--" + KEY_WRITERS)
+        .help("number of concurrent writers (each session is always written by the same one)")
+        .setDefault(DEFAULT_WRITERS);
+    hostGroup
+        .addArgument("--" + KEY_SINK)
+        .help("where events are stored ('memory' keeps them in memory, for benchmarking)")
+        .choices("neo4j", "memory")
+        .setDefault(DEFAULT_SINK);
 
-    ArgumentGroup udpGroup = parser.addArgumentGroup("UDP Event Listener");
-    udpGroup
-        .addArgument("--" + KEY_UDP_HOST)
-        .help("IPv4 host to bind to")
-        .setDefault(DEFAULT_UDP_HOST);
-    udpGroup
-        .addArgument("--" + KEY_UDP_PORT)
-        .help("udp port to listen on")
-        .setDefault(DEFAULT_UDP_PORT);
-    udpGroup
+    final ArgumentGroup batchGroup;
+    if (ingest) {
+      batchGroup = parser.addArgumentGroup("File Ingest");
+      batchGroup
+          .addArgument(KEY_INGEST_FILES)
+          .nargs("+")
+          .help("newline-delimited telemetry log file(s) to load");
+      batchGroup
+          .addArgument("--" + KEY_INGEST_THREADS)
+          .help("number of threads decoding each file")
+          .setDefault(DEFAULT_INGEST_THREADS);
+      batchGroup
+          .addArgument("--" + KEY_INGEST_SESSION)
+          .help("session for events that don't carry one (defaults to the file name)");
+    } else {
+      batchGroup = parser.addArgumentGroup("UDP Event Listener");
+      batchGroup
+          .addArgument("--" + KEY_UDP_HOST)
+          .help("IPv4 host to bind to")
+          .setDefault(DEFAULT_UDP_HOST);
+      batchGroup
+          .addArgument("--" + KEY_UDP_PORT)
+          .help("udp port to listen on")
+          .setDefault(DEFAULT_UDP_PORT);
+      batchGroup
+          .addArgument("--" + KEY_UDP_LISTENERS)
+          .help("number of udp channels to bind to the port (SO_REUSEPORT, Linux only)")
+          .setDefault(DEFAULT_UDP_LISTENERS);
+      batchGroup
+          .addArgument("--" + KEY_LOSS_REPORT_INTERVAL)
+          .help("seconds between logged per-session packet loss summaries (0 disables)")
+          .setDefault(DEFAULT_LOSS_REPORT_INTERVAL);
+      batchGroup
+          .addArgument("--" + KEY_SESSION_IDLE_TIMEOUT)
+          .help("seconds a session can go unheard from before its loss metrics are dropped")
+          .setDefault(DEFAULT_SESSION_IDLE_TIMEOUT);
+    }
+    batchGroup
         .addArgument("--" + KEY_BATCH_SIZE)
         .help("event buffer size")
         .setDefault(DEFAULT_BATCH_SIZE);
-    udpGroup
+    batchGroup
         .addArgument("--" + KEY_WINDOW_TIMEOUT)
         .help("event buffer flush interval")
         .setDefault(DEFAULT_FLUSH_INTERVAL);
+    batchGroup
+        .addArgument("--" + KEY_ADAPTIVE_BATCHING)
+        .help("adapt batch size and flush interval to the target commit time?")
+        .setDefault(DEFAULT_ADAPTIVE_BATCHING);
+    batchGroup
+        .addArgument("--" + KEY_TARGET_COMMIT_MS)
+        .help("commit time in milliseconds adaptive batching aims for")
+        .setDefault(DEFAULT_TARGET_COMMIT_MS);
+
+    ArgumentGroup queueGroup = parser.addArgumentGroup("Event Queue");
+    queueGroup
+        .addArgument("--" + KEY_QUEUE_SIZE)
+        .help("max events waiting to be written to the database")
+        .setDefault(DEFAULT_QUEUE_SIZE);
+    if (!ingest) {
+      // Files can simply be read slower, so an ingest never drops anything.
+      queueGroup
+          .addArgument("--" + KEY_OVERFLOW_POLICY)
+          .help("what to drop when the queue is full")
+          .choices("drop-newest", "drop-oldest", "drop-by-type")
+          .setDefault(DEFAULT_OVERFLOW_POLICY);
+    }
+    queueGroup
+        .addArgument("--" + KEY_OFF_HEAP_QUEUE)
+        .help("keep queued events outside the Java heap?")
+        .setDefault(DEFAULT_OFF_HEAP_QUEUE);
+    queueGroup
+        .addArgument("--" + KEY_COALESCE_MOVES)
+        .help("fold same-tic and unchanged moves together before writing?")
+        .setDefault(DEFAULT_COALESCE_MOVES);
+    queueGroup
+        .addArgument("--" + KEY_REORDER_MS)
+        .help("longest to hold an event waiting for earlier ones from its session (0 disables)")
+        .setDefault(DEFAULT_REORDER_MS);
+    queueGroup
+        .addArgument("--" + KEY_REORDER_DEPTH)
+        .help("most out of order events held per session")
+        .setDefault(DEFAULT_REORDER_DEPTH);
+
+    ArgumentGroup stateGroup = parser.addArgumentGroup("State Maintenance");
+    stateGroup
+        .addArgument("--" + KEY_STATE_INTERVAL)
+        .help("seconds between CURRENT_STATE maintenance passes")
+        .setDefault(DEFAULT_STATE_INTERVAL);
+    stateGroup
+        .addArgument("--" + KEY_STATE_BACKLOG)
+        .help("number of touched actors that triggers a pass early")
+        .setDefault(DEFAULT_STATE_BACKLOG);
+
+    ArgumentGroup httpGroup = parser.addArgumentGroup("HTTP Admin");
+    httpGroup
+        .addArgument("--" + KEY_HTTP_HOST)
+        .help("host to serve metrics and the admin endpoints on")
+        .setDefault(DEFAULT_HTTP_HOST);
+    httpGroup
+        .addArgument("--" + KEY_HTTP_PORT)
+        .help("http port to serve metrics and the admin endpoints on (0 disables)")
+        .setDefault(DEFAULT_HTTP_PORT);
+
+    if (!ingest) {
+      ArgumentGroup spoolGroup = parser.addArgumentGroup("Write-Ahead Spool");
+      spoolGroup
+          .addArgument("--" + KEY_SPOOL_DIR)
+          .help("directory to spool datagrams to until they're stored (disabled if not set)");
+      spoolGroup
+          .addArgument("--" + KEY_SPOOL_SEGMENT_MB)
+          .help("size of each spool segment file in MiB")
+          .setDefault(DEFAULT_SPOOL_SEGMENT_MB);
+    }
+    return parser;
   }
 
   public String username;
   public String password;
   public String udpHost;
   public int udpPort;
+  public int udpListeners;
+  public int lossReportInterval;
+  public int sessionIdleTimeout;
   public String boltUri;
   public String dbName;
   public boolean useEncryption;
+  public int writers;
+  public EventSink.Sink sink;
   public int bufferSize;
   public int flushInterval;
+  public boolean adaptiveBatching;
+  public int targetCommitMs;
+  public int queueSize;
+  public Handoff.Overflow overflowPolicy;
+  public boolean offHeapQueue;
+  public boolean coalesceMoves;
+  public int reorderMs;
+  public int reorderDepth;
+  public int stateInterval;
+  public int stateBacklog;
+  public String httpHost;
+  public int httpPort;
+  public String spoolDir;
+  public int spoolSegmentMb;
+  public boolean ingest;
+  public List<String> ingestFiles;
+  public int ingestThreads;
+  public String ingestSession;
 
   public Config(String[] args) {
     Namespace ns;
 
+    ingest = args.length > 0 && COMMAND_INGEST.equals(args[0]);
+    final ArgumentParser parser = ingest ? ingestParser : Config.parser;
     try {
-      ns = parser.parseArgs(args);
+      ns = parser.parseArgs(ingest ? Arrays.copyOfRange(args, 1, args.length) : args);
     } catch (ArgumentParserException ape) {
       parser.handleError(ape);
       throw new ConfigException(ape.getLocalizedMessage(), Problem.ASKED_FOR_HELP);
@@ -102,6 +311,12 @@ public class Config {
     boltUri = orString(ns, KEY_BOLT_URI, DEFAULT_BOLT_URI);
     dbName = orString(ns, KEY_DB_NAME, DEFAULT_DB_NAME);
     useEncryption = orBool(ns, KEY_USE_ENCRYPTION, DEFAULT_USE_ENCRYPTION);
+    writers = orInt(ns, KEY_WRITERS, DEFAULT_WRITERS);
+    if (1 > writers || writers > 64) {
+      throw new ConfigException("writers must be between 1 and 64", Problem.INVALID_VALUE);
+    }
+
+    sink = EventSink.Sink.fromString(orString(ns, KEY_SINK, DEFAULT_SINK));
 
     udpHost = orString(ns, KEY_UDP_HOST, DEFAULT_UDP_HOST);
     udpPort = orInt(ns, KEY_UDP_PORT, DEFAULT_UDP_PORT);
@@ -109,15 +324,83 @@ public class Config {
       throw new ConfigException("udp port out of valid range", Problem.INVALID_VALUE);
     }
 
+    udpListeners = orInt(ns, KEY_UDP_LISTENERS, DEFAULT_UDP_LISTENERS);
+    if (1 > udpListeners || udpListeners > 64) {
+      throw new ConfigException("udp listeners must be between 1 and 64", Problem.INVALID_VALUE);
+    }
+
+    lossReportInterval = orInt(ns, KEY_LOSS_REPORT_INTERVAL, DEFAULT_LOSS_REPORT_INTERVAL);
+    if (0 > lossReportInterval) {
+      throw new ConfigException("loss report interval must not be negative", Problem.INVALID_VALUE);
+    }
+
+    sessionIdleTimeout = orInt(ns, KEY_SESSION_IDLE_TIMEOUT, DEFAULT_SESSION_IDLE_TIMEOUT);
+    if (1 > sessionIdleTimeout) {
+      throw new ConfigException("session idle timeout must be positive", Problem.INVALID_VALUE);
+    }
+
     bufferSize = orInt(ns, KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
     if (250 > bufferSize || bufferSize > 10_000) {
       throw new ConfigException("buffer size out of a 'tolerable' range", Problem.INVALID_VALUE);
     }
 
     flushInterval = orInt(ns, KEY_WINDOW_TIMEOUT, DEFAULT_FLUSH_INTERVAL);
-    if (0 > flushInterval || flushInterval > Integer.MAX_VALUE) {
+    if (MIN_FLUSH_INTERVAL > flushInterval) {
       throw new ConfigException("flush interval must be positive", Problem.INVALID_VALUE);
     }
+
+    adaptiveBatching = orBool(ns, KEY_ADAPTIVE_BATCHING, DEFAULT_ADAPTIVE_BATCHING);
+    targetCommitMs = orInt(ns, KEY_TARGET_COMMIT_MS, DEFAULT_TARGET_COMMIT_MS);
+    if (1 > targetCommitMs) {
+      throw new ConfigException("target commit time must be positive", Problem.INVALID_VALUE);
+    }
+
+    queueSize = orInt(ns, KEY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+    if (bufferSize > queueSize || queueSize > (1 << 24)) {
+      throw new ConfigException(
+          "queue size must be between the buffer size and 16M", Problem.INVALID_VALUE);
+    }
+    overflowPolicy =
+        Handoff.Overflow.fromString(orString(ns, KEY_OVERFLOW_POLICY, DEFAULT_OVERFLOW_POLICY));
+    offHeapQueue = orBool(ns, KEY_OFF_HEAP_QUEUE, DEFAULT_OFF_HEAP_QUEUE);
+    coalesceMoves = orBool(ns, KEY_COALESCE_MOVES, DEFAULT_COALESCE_MOVES);
+    reorderMs = orInt(ns, KEY_REORDER_MS, DEFAULT_REORDER_MS);
+    if (0 > reorderMs) {
+      throw new ConfigException("reorder hold time must not be negative", Problem.INVALID_VALUE);
+    }
+    reorderDepth = orInt(ns, KEY_REORDER_DEPTH, DEFAULT_REORDER_DEPTH);
+    if (1 > reorderDepth) {
+      throw new ConfigException("reorder depth must be at least 1", Problem.INVALID_VALUE);
+    }
+
+    stateInterval = orInt(ns, KEY_STATE_INTERVAL, DEFAULT_STATE_INTERVAL);
+    if (1 > stateInterval) {
+      throw new ConfigException("state interval must be positive", Problem.INVALID_VALUE);
+    }
+    stateBacklog = orInt(ns, KEY_STATE_BACKLOG, DEFAULT_STATE_BACKLOG);
+    if (1 > stateBacklog) {
+      throw new ConfigException("state backlog must be at least 1", Problem.INVALID_VALUE);
+    }
+
+    httpHost = orString(ns, KEY_HTTP_HOST, DEFAULT_HTTP_HOST);
+    httpPort = orInt(ns, KEY_HTTP_PORT, DEFAULT_HTTP_PORT);
+    if (0 > httpPort || httpPort > 0xffff) {
+      throw new ConfigException("http port out of valid range", Problem.INVALID_VALUE);
+    }
+
+    spoolDir = orString(ns, KEY_SPOOL_DIR, DEFAULT_SPOOL_DIR);
+    spoolSegmentMb = orInt(ns, KEY_SPOOL_SEGMENT_MB, DEFAULT_SPOOL_SEGMENT_MB);
+    if (1 > spoolSegmentMb || spoolSegmentMb > 1024) {
+      throw new ConfigException(
+          "spool segment size must be between 1 and 1024 MiB", Problem.INVALID_VALUE);
+    }
+
+    ingestFiles = ingest ? ns.getList(KEY_INGEST_FILES) : Collections.emptyList();
+    ingestThreads = orInt(ns, KEY_INGEST_THREADS, DEFAULT_INGEST_THREADS);
+    if (1 > ingestThreads || ingestThreads > 256) {
+      throw new ConfigException("ingest threads must be between 1 and 256", Problem.INVALID_VALUE);
+    }
+    ingestSession = orString(ns, KEY_INGEST_SESSION, DEFAULT_INGEST_SESSION);
   }
 
   private static String convertToStupidArgParseKey(String key) {
@@ -162,6 +445,12 @@ public class Config {
         + '\''
         + ", udpPort="
         + udpPort
+        + ", udpListeners="
+        + udpListeners
+        + ", lossReportInterval="
+        + lossReportInterval
+        + ", sessionIdleTimeout="
+        + sessionIdleTimeout
         + ", boltUri='"
         + boltUri
         + '\''
@@ -170,10 +459,47 @@ public class Config {
         + '\''
         + ", useEncryption="
         + useEncryption
+        + ", writers="
+        + writers
+        + ", sink="
+        + sink
         + ", bufferSize="
         + bufferSize
         + ", flushInterval="
         + flushInterval
+        + ", adaptiveBatching="
+        + adaptiveBatching
+        + ", targetCommitMs="
+        + targetCommitMs
+        + ", queueSize="
+        + queueSize
+        + ", overflowPolicy="
+        + overflowPolicy
+        + ", offHeapQueue="
+        + offHeapQueue
+        + ", coalesceMoves="
+        + coalesceMoves
+        + ", reorderMs="
+        + reorderMs
+        + ", reorderDepth="
+        + reorderDepth
+        + ", stateInterval="
+        + stateInterval
+        + ", stateBacklog="
+        + stateBacklog
+        + ", httpHost='"
+        + httpHost
+        + '\''
+        + ", httpPort="
+        + httpPort
+        + ", spoolDir='"
+        + spoolDir
+        + '\''
+        + ", spoolSegmentMb="
+        + spoolSegmentMb
+        + (ingest
+            ? ", ingestFiles=" + ingestFiles + ", ingestThreads=" + ingestThreads
+            : "")
         + '}';
   }
 }
@@ -0,0 +1,131 @@
+package io.sisu.groom;
+
+import io.sisu.groom.events.EventBatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+
+/**
+ * Keeps track of which actors have gained new states since their CURRENT_STATE relationship was
+ * last moved, so that only those actors are updated instead of every actor in the graph.
+ *
+ * <p>Writers {@link #touched(EventBatch) collect} the newest state of each actor in a batch before
+ * the batch is released and {@link #stored(Map) record} it once the batch has been inserted. The
+ * pass maintaining CURRENT_STATE then {@link #drain() drains} whatever has accumulated, split by
+ * session, so a pass only touches the sessions that have been written to since the last one, and
+ * hands back any session it {@link #failed(Query) failed} to move.
+ */
+public class CurrentStates {
+
+  /** An actor in a given session. */
+  public static final class ActorKey {
+    private final String session;
+    private final long id;
+
+    ActorKey(String session, long id) {
+      this.session = session;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ActorKey)) {
+        return false;
+      }
+      ActorKey other = (ActorKey) o;
+      return id == other.id && session.equals(other.session);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(session, id);
+    }
+  }
+
+  private final ConcurrentHashMap<ActorKey, Integer> pending = new ConcurrentHashMap<>();
+
+  /**
+   * Find the newest state of every actor (or target) in a batch.
+   *
+   * @param batch batch about to be inserted
+   * @return the counter of each actor's newest state
+   */
+  public static Map<ActorKey, Integer> touched(EventBatch batch) {
+    Map<ActorKey, Integer> touched = new HashMap<>();
+    for (int row = 0; row < batch.size(); row++) {
+      final String session = batch.session(row);
+      touched.merge(new ActorKey(session, batch.actor().id(row)), batch.counter(row), Math::max);
+      if (batch.hasTarget(row)) {
+        touched.merge(
+            new ActorKey(session, batch.target().id(row)), batch.counter(row), Math::max);
+      }
+    }
+    return touched;
+  }
+
+  /**
+   * Record states that have been written to the database.
+   *
+   * @param touched result of {@link #touched(EventBatch)} for a stored batch
+   */
+  public void stored(Map<ActorKey, Integer> touched) {
+    touched.forEach((actor, counter) -> pending.merge(actor, counter, Math::max));
+  }
+
+  /**
+   * Put back the actors of a drained query that failed to move, so the next pass tries them again.
+   * Anything newer recorded for them in the meantime is kept.
+   *
+   * @param query one of the queries returned by {@link #drain()}
+   */
+  public void failed(Query query) {
+    final String session = query.parameters().get("session").asString();
+    for (Value row : query.parameters().get(Cypher.CURRENT_STATE_PARAM).values()) {
+      pending.merge(
+          new ActorKey(session, Long.parseLong(row.get("id").asString())),
+          row.get("counter").asInt(),
+          Math::max);
+    }
+  }
+
+  /** @return the number of actors waiting for their CURRENT_STATE to be moved */
+  public int size() {
+    return pending.size();
+  }
+
+  /**
+   * Take everything recorded so far.
+   *
+   * @return a query per session, each moving CURRENT_STATE for that session's recorded actors
+   */
+  public List<Query> drain() {
+    Map<String, List<Map<String, Object>>> sessions = new HashMap<>();
+    for (Map.Entry<ActorKey, Integer> entry : pending.entrySet()) {
+      // Leave the entry for the next pass if a writer just moved it on.
+      if (pending.remove(entry.getKey(), entry.getValue())) {
+        Map<String, Object> row = new HashMap<>();
+        // Stored as a string, like the rest of groom's actor ids.
+        row.put("id", Long.toString(entry.getKey().id));
+        row.put("counter", entry.getValue());
+        sessions.computeIfAbsent(entry.getKey().session, session -> new ArrayList<>()).add(row);
+      }
+    }
+    List<Query> queries = new ArrayList<>(sessions.size());
+    sessions.forEach(
+        (session, rows) -> {
+          Map<String, Object> params = new HashMap<>();
+          params.put("session", session);
+          params.put(Cypher.CURRENT_STATE_PARAM, rows);
+          queries.add(new Query(Cypher.CURRENT_STATE_UPDATE, params));
+        });
+    return queries;
+  }
+}
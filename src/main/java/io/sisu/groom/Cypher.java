@@ -1,129 +1,357 @@
 package io.sisu.groom;
 
-import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.KnownEntities;
+import io.sisu.groom.sessions.SessionState;
 import io.sisu.util.BulkQuery;
-import java.util.Arrays;
+import io.sisu.util.ColumnarParams;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
 import reactor.core.publisher.Mono;
 
 public class Cypher {
   public static String ENSURE_APOC = "RETURN apoc.version()";
 
   public static final String SCHEMA_ASSERT = "CALL apoc.schema.assert({\n" +
-          "  Frame: [[\"session\", \"id\"], [\"millis\"]],\n" +
+          "  Frame: [[\"session\", \"id\"], [\"session\", \"tic\"], [\"millis\"]],\n" +
+          "  Event: [[\"session\", \"counter\"]],\n" +
           "  Actor: [[\"session\", \"id\"], [\"id\"], [\"session\"]],\n" +
           "  SubSector: [[\"session\", \"id\"]],\n" +
           "  Enemy: [[\"session\", \"id\"], [\"type\"]],\n" +
-          "  State: [[\"session\", \"id\"]],\n" +
+          "  State: [[\"session\", \"id\"], [\"actorSession\", \"actorId\", \"counter\"]],\n" +
           "  Player: [[\"session\", \"id\"]]\n" +
           "}, {});";
 
-  private static final String UNWIND_PARAM = "eventList";
-  private static final String BULK_EVENT_INSERT_CYPHER =
-      String.join(
-          "\n",
-          new String[] {
-            // Bulk construct event components
-            "UNWIND $" + UNWIND_PARAM + " AS event",
-                  "MERGE (frame:Frame {tic: event.frame.tic, session: event.session})",
-                  "  ON CREATE SET frame.millis = event.frame.millis",
-                  "  CREATE (ev:Event {type: event.type, counter: event.counter})",
-                  "  CREATE (ev)-[:OCCURRED_AT]->(frame)",
-                  "  // Conditionally process Actor and Target",
-                  "  FOREACH (thing IN [x IN [event.actor, event.target] WHERE x IS NOT NULL] |",
-                  "          MERGE (actor:Actor {id: thing.id, session: event.session})",
-                  "  ON CREATE SET actor.type = thing.type",
-                  "  MERGE (subsector:SubSector {id: thing.position.subsector, session: event.session})",
-                  "  CREATE (actorState:State)",
-                  "  SET actorState.position = point(thing.position),",
-                  "  actorState.angle = thing.position.angle,",
-                  "  actorState.health = thing.health,",
-                  "  actorState.armor = thing.armor,",
-                  "  actorState.actorId = thing.id,",
-                  "  actorState.actorSession = event.session",
-                  "  CREATE (actorState)-[:IN_SUBSECTOR]->(subsector)",
-                  "  // Hacky logic...hold your nose",
-                  "  FOREACH (_ IN CASE thing.id WHEN event.actor.id",
-                  "          THEN [1] ELSE [] END | CREATE (actorState)-[:ACTOR_IN]->(ev))",
-                  "  FOREACH (_ IN CASE thing.id WHEN event.target.id",
-                  "          THEN [1] ELSE [] END | CREATE (actorState)-[:TARGET_IN]->(ev))",
-                  "  FOREACH (_ IN CASE thing.type WHEN 'player'",
-                  "          THEN [1] ELSE [] END | SET actor:Player, actorState:PlayerState)",
-                  "  FOREACH (_ IN CASE thing.type WHEN 'player'",
-                  "          THEN [] ELSE [1] END | SET actor:Enemy, actorState:EnemyState)",
-          });
-
-  public static final String THREAD_FRAMES =
-      String.join(
-          "\n",
-          "MATCH (f:Frame) WHERE NOT (f)<-[:PREV_FRAME]-()",
-          "WITH f ORDER BY f.tic",
-          "WITH collect(f) AS frames",
-          "UNWIND apoc.coll.pairsMin(frames) AS pair",
-          "WITH pair[0] AS prev, pair[1] AS next",
-          "    CREATE (next)-[:PREV_FRAME]->(prev)");
-
-  public static final String THREAD_EVENTS =
-      String.join(
-          "\n",
-          "MATCH (e:Event) WHERE NOT (e)<-[:PREV_EVENT]-()",
-          "WITH e ORDER BY e.counter",
-          "WITH collect(e) AS events",
-          "UNWIND apoc.coll.pairsMin(events) AS pair",
-          "WITH pair[0] AS prev, pair[1] AS next",
-          "    CREATE (next)-[:PREV_EVENT]->(prev)");
-
-  public static final String THREAD_STATES =
+  /**
+   * The bulk insert, as one UNWIND per node label and per relationship type. A batch runs the
+   * stages it has rows for, in this order and in a single transaction, so every node exists by the
+   * time the relationships are matched up. Each stage's rows are sent as {@link ColumnarParams}
+   * and read back into a map {@code r} per row.
+   */
+  enum Stage {
+    // Nodes
+    NEW_FRAMES(
+        columns("session", "tic", "millis"),
+        "CREATE (:Frame {tic: r.tic, session: r.session, millis: r.millis})"),
+    SEEN_FRAMES(
+        columns("session", "tic", "millis"),
+        "MERGE (frame:Frame {tic: r.tic, session: r.session})",
+        "  ON CREATE SET frame.millis = r.millis"),
+    NEW_SUBSECTORS(columns("session", "id"), "CREATE (:SubSector {id: r.id, session: r.session})"),
+    SEEN_SUBSECTORS(columns("session", "id"), "MERGE (:SubSector {id: r.id, session: r.session})"),
+    NEW_PLAYERS(
+        columns("session", "id", "type"),
+        "CREATE (:Actor:Player {id: r.id, session: r.session, type: r.type})"),
+    NEW_ENEMIES(
+        columns("session", "id", "type"),
+        "CREATE (:Actor:Enemy {id: r.id, session: r.session, type: r.type})"),
+    EVENTS(
+        columns("session", "counter", "type", "foldedCounters"),
+        "CREATE (ev:Event {type: r.type, counter: r.counter, session: r.session})",
+        "SET ev.foldedCounters = r.foldedCounters"),
+    PLAYER_STATES(State.COLUMNS, "CREATE (state:State:PlayerState)", State.PROPERTIES),
+    ENEMY_STATES(State.COLUMNS, "CREATE (state:State:EnemyState)", State.PROPERTIES),
+
+    // Relationships
+    OCCURRED_AT(
+        columns("session", "counter", "tic"),
+        "MATCH (ev:Event {session: r.session, counter: r.counter})",
+        "MATCH (frame:Frame {session: r.session, tic: r.tic})",
+        "CREATE (ev)-[:OCCURRED_AT]->(frame)"),
+    ACTOR_IN(
+        State.KEY,
+        State.MATCH,
+        "MATCH (ev:Event {session: r.session, counter: r.counter})",
+        "CREATE (state)-[:ACTOR_IN]->(ev)"),
+    TARGET_IN(
+        State.KEY,
+        State.MATCH,
+        "MATCH (ev:Event {session: r.session, counter: r.counter})",
+        "CREATE (state)-[:TARGET_IN]->(ev)"),
+    IN_SUBSECTOR(
+        columns("session", "id", "counter", "subsector"),
+        State.MATCH,
+        "MATCH (subsector:SubSector {session: r.session, id: r.subsector})",
+        "CREATE (state)-[:IN_SUBSECTOR]->(subsector)"),
+    INITIAL_STATE(
+        State.KEY,
+        State.MATCH,
+        "MATCH (actor:Actor {session: r.session, id: r.id})",
+        "CREATE (actor)-[:INITIAL_STATE]->(state)"),
+    PREV_FRAME(
+        columns("session", "tic", "prevTic"),
+        "MATCH (frame:Frame {session: r.session, tic: r.tic})",
+        "MATCH (prevFrame:Frame {session: r.session, tic: r.prevTic})",
+        "MERGE (frame)-[:PREV_FRAME]->(prevFrame)"),
+    PREV_EVENT(
+        columns("session", "counter", "prevCounter"),
+        "MATCH (ev:Event {session: r.session, counter: r.counter})",
+        "MATCH (prevEvent:Event {session: r.session, counter: r.prevCounter})",
+        "CREATE (ev)-[:PREV_EVENT]->(prevEvent)"),
+    PREV_STATE(
+        columns("session", "id", "counter", "prevState"),
+        State.MATCH,
+        "MATCH (prevState:State {actorSession: r.session, actorId: r.id, counter: r.prevState})",
+        "CREATE (state)-[:PREV_STATE]->(prevState)");
+
+    /** Shared pieces of the State stages. */
+    private static class State {
+      private static final String[] COLUMNS =
+          columns("session", "id", "counter", "health", "armor", "x", "y", "z", "angle");
+      private static final String PROPERTIES =
+          String.join(
+              "\n",
+              "SET state.position =",
+              "    CASE WHEN r.x IS NULL THEN null ELSE point({x: r.x, y: r.y, z: r.z}) END,",
+              "  state.angle = r.angle,",
+              "  state.health = r.health,",
+              "  state.armor = r.armor,",
+              "  state.actorId = r.id,",
+              "  state.actorSession = r.session,",
+              "  state.counter = r.counter");
+      private static final String[] KEY = columns("session", "id", "counter");
+      private static final String MATCH =
+          "MATCH (state:State {actorSession: r.session, actorId: r.id, counter: r.counter})";
+    }
+
+    final String[] columns;
+    final String cypher;
+
+    Stage(String[] columns, String... lines) {
+      this.columns = columns;
+      StringBuilder cypher =
+          new StringBuilder("UNWIND range(0, size($").append(columns[0]).append(") - 1) AS i\n");
+      cypher.append("WITH {");
+      for (int c = 0; c < columns.length; c++) {
+        cypher.append(c == 0 ? "" : ", ").append(columns[c]);
+        cypher.append(": $").append(columns[c]).append("[i]");
+      }
+      cypher.append("} AS r\n");
+      this.cypher = cypher.append(String.join("\n", lines)).toString();
+    }
+
+    private static String[] columns(String... names) {
+      return names;
+    }
+
+    private static final Map<String, Stage> BY_CYPHER = new HashMap<>();
+
+    static {
+      for (Stage stage : values()) {
+        BY_CYPHER.put(stage.cypher, stage);
+      }
+    }
+
+    /** @return the stage a compiled query runs, or null if it isn't one of the bulk insert's */
+    static Stage of(Query query) {
+      return BY_CYPHER.get(query.text());
+    }
+  }
+
+  /** Where a session's chains ended, for picking them back up after a restart. */
+  public static final String CHAIN_TAILS =
       String.join(
           "\n",
-          "MATCH (a:Actor)",
-          "MATCH (s:State {actorId:a.id, actorSession:a.session})-[:ACTOR_IN|:TARGET_IN]->(e:Event)",
-          "    WHERE NOT (s)<-[:PREV_STATE]-()",
-          "WITH s, e ORDER BY e.counter",
-          "WITH collect(s) AS states, s.actorId AS actorId",
-          "UNWIND apoc.coll.pairsMin(states) AS pair",
-          "WITH pair[0] AS prev, pair[1] AS next",
-          "    CREATE (next)-[:PREV_STATE]->(prev)");
-
-  public static final String CURRENT_STATE_DELETE =
-      "MATCH (a:Actor)-[r:CURRENT_STATE]->(old:State) DELETE r";
+          "OPTIONAL MATCH (f:Frame {session: $session})",
+          "WITH max(f.tic) AS tic",
+          "OPTIONAL MATCH (e:Event {session: $session})",
+          "WITH tic, max(e.counter) AS counter",
+          "OPTIONAL MATCH (s:State {actorSession: $session})",
+          "WITH tic, counter, s.actorId AS actorId, max(s.counter) AS state",
+          "RETURN tic, counter, collect([actorId, state]) AS states");
 
+  /**
+   * Moves CURRENT_STATE for some of one session's actors. Each pass runs it once per session, so a
+   * transaction only ever locks the one session's actors and sessions can be moved concurrently.
+   */
+  public static final String CURRENT_STATE_PARAM = "actors";
   public static final String CURRENT_STATE_UPDATE =
       String.join(
           "\n",
-          "MATCH (s:State) WHERE NOT (s)<-[:PREV_STATE]-()",
-          "MATCH (a:Actor {id:s.actorId, session:s.actorSession})",
-          "MERGE (a)-[:CURRENT_STATE]->(s)");
+          "UNWIND $" + CURRENT_STATE_PARAM + " AS touched",
+          "MATCH (a:Actor {session: $session, id: touched.id})",
+          "MATCH (s:State {actorSession: $session, actorId: touched.id, counter: touched.counter})",
+          "OPTIONAL MATCH (a)-[old:CURRENT_STATE]->(:State)",
+          "DELETE old",
+          "CREATE (a)-[:CURRENT_STATE]->(s)");
 
-  public static final String INITIAL_STATE =
-      String.join(
-          "\n",
-          "MATCH (a:Actor)-[:CURRENT_STATE]->(:State) WHERE NOT (a)-[:INITIAL_STATE]->(:State)",
-          "WITH a",
-          "MATCH (a)-[:CURRENT_STATE]->(:State)-[:PREV_STATE*]->(first:State)",
-          "WHERE NOT (first)-[:PREV_STATE]->(:State)",
-          "MERGE (a)-[:INITIAL_STATE]->(first)");
-
-  public static final List<Query> THREADING_QUERIES =
-      Arrays.asList(
-          new Query(Cypher.THREAD_FRAMES),
-          new Query(Cypher.THREAD_EVENTS),
-          new Query(Cypher.THREAD_STATES),
-          new Query(Cypher.CURRENT_STATE_DELETE),
-          new Query(Cypher.CURRENT_STATE_UPDATE),
-          new Query(Cypher.INITIAL_STATE));
-
-  public static Mono<BulkQuery> compileBulkEventComponentInsert(List<Event> events) {
-    if (events == null || events.isEmpty()) {
+  public static Mono<BulkQuery> compileBulkEventComponentInsert(EventBatch batch) {
+    if (batch == null || batch.isEmpty()) {
       return Mono.empty();
     }
-    Map<String, Object> params = new HashMap();
-    params.put(UNWIND_PARAM, events.stream().map(Event::toMap).collect(Collectors.toList()));
+    Compiler compiler = new Compiler();
+    for (int row = 0; row < batch.size(); row++) {
+      compiler.compileRow(batch, row);
+    }
+
+    List<Query> queries = new ArrayList<>(compiler.stages.size());
+    compiler.stages.forEach(
+        (stage, params) -> queries.add(new Query(stage.cypher, params.toParameters())));
+    return Mono.just(new BulkQuery(batch.size(), queries));
+  }
+
+  /** Splits one batch into the rows of each {@link Stage}. */
+  private static class Compiler {
+    private final Map<Stage, ColumnarParams> stages = new EnumMap<>(Stage.class);
+    // Sessions and type names repeat on nearly every row, so only make one Value for each.
+    private final Map<String, Value> strings = new HashMap<>();
+    // Actor ids are longs within groom, but have always been stored as strings.
+    private final Map<Long, Value> actorIds = new HashMap<>();
+
+    private ColumnarParams row(Stage stage) {
+      ColumnarParams params = stages.get(stage);
+      if (params == null) {
+        params = new ColumnarParams(stage.columns);
+        stages.put(stage, params);
+      }
+      return params.row();
+    }
+
+    private Value string(String s) {
+      Value value = strings.get(s);
+      if (value == null) {
+        value = Values.value(s);
+        strings.put(s, value);
+      }
+      return value;
+    }
+
+    private Value actorId(long id) {
+      Value value = actorIds.get(id);
+      if (value == null) {
+        value = Values.value(Long.toString(id));
+        actorIds.put(id, value);
+      }
+      return value;
+    }
+
+    private void compileRow(EventBatch batch, int row) {
+      final SessionState session = batch.sessionState(row);
+      final Chains chains = session.getChains();
+      final Value name = string(session.getName());
+      final int counter = batch.counter(row);
+      final int tic = batch.tic(row);
+
+      final int[] folded = batch.foldedCounters(row);
+      row(Stage.EVENTS)
+          .add(name)
+          .add(counter)
+          .add(string(batch.typeName(row)))
+          .add(folded.length > 0 ? Values.value(folded) : Values.NULL);
+      row(Stage.OCCURRED_AT).add(name).add(counter).add(tic);
+
+      int prevCounter = batch.prevCounter(row);
+      if (prevCounter == Chains.UNKNOWN || chains.isLost(prevCounter)) {
+        prevCounter = chains.resumedEvent();
+      }
+      if (isLink(prevCounter)) {
+        row(Stage.PREV_EVENT).add(name).add(counter).add(prevCounter);
+      }
+
+      int prevTic = batch.prevTic(row);
+      boolean startsFrame = prevTic != Chains.NONE;
+      final KnownEntities known = session.getKnown();
+      if (!startsFrame && chains.isLostFrame(tic) && !known.hasFrame(tic)) {
+        // The events that started the frame were never stored, so this one starts it after all.
+        startsFrame = true;
+        prevTic = Chains.UNKNOWN;
+      } else if (chains.isLostFrame(prevTic) && !known.hasFrame(prevTic)) {
+        prevTic = Chains.UNKNOWN;
+      }
+      if (startsFrame) {
+        switch (known.frame(tic)) {
+          case CREATE:
+            row(Stage.NEW_FRAMES).add(name).add(tic).add(batch.millis(row));
+            break;
+          case MERGE:
+            row(Stage.SEEN_FRAMES).add(name).add(tic).add(batch.millis(row));
+            break;
+          default:
+            break;
+        }
+        prevTic = prevTic == Chains.UNKNOWN ? chains.resumedFrame() : prevTic;
+        if (isLink(prevTic)) {
+          row(Stage.PREV_FRAME).add(name).add(tic).add(prevTic);
+        }
+      }
+
+      final EventBatch.ActorColumns actor = batch.actor();
+      compileState(actor, row, counter, session, name);
+      row(Stage.ACTOR_IN).add(name).add(actorId(actor.id(row))).add(counter);
+      if (batch.hasTarget(row)) {
+        final EventBatch.ActorColumns target = batch.target();
+        // An actor targeting itself only has the one state.
+        if (target.id(row) != actor.id(row)) {
+          compileState(target, row, counter, session, name);
+        }
+        row(Stage.TARGET_IN).add(name).add(actorId(target.id(row))).add(counter);
+      }
+    }
+
+    /**
+     * Compile an actor's (or target's) new state, along with the actor and subsector if they're
+     * new and the state's links to them and to its predecessor.
+     */
+    private void compileState(
+        EventBatch.ActorColumns actor, int row, int counter, SessionState session, Value name) {
+      final boolean player = actor.isPlayer(row);
+      final long actorId = actor.id(row);
+      final Value id = actorId(actorId);
+
+      int prevState = actor.prevState(row);
+      if (prevState == Chains.UNKNOWN || session.getChains().isLost(prevState)) {
+        prevState = session.getChains().resumedState(actorId);
+        if (prevState == Chains.NONE) {
+          // Nothing to follow, not even from before a restart, so this is the actor's first
+          // state and the actor itself is new.
+          row(player ? Stage.NEW_PLAYERS : Stage.NEW_ENEMIES)
+              .add(name)
+              .add(id)
+              .add(string(actor.typeName(row)));
+          row(Stage.INITIAL_STATE).add(name).add(id).add(counter);
+        }
+      }
+      if (isLink(prevState)) {
+        row(Stage.PREV_STATE).add(name).add(id).add(counter).add(prevState);
+      }
+
+      ColumnarParams state =
+          row(player ? Stage.PLAYER_STATES : Stage.ENEMY_STATES)
+              .add(name)
+              .add(id)
+              .add(counter)
+              .add(actor.health(row))
+              .add(actor.armor(row));
+      if (!actor.hasPosition(row)) {
+        state.skip().skip().skip().skip();
+        return;
+      }
+      state.add(actor.x(row)).add(actor.y(row)).add(actor.z(row)).add(actor.angle(row));
+
+      final long subsector = actor.subsector(row);
+      switch (session.getKnown().subsector(actor.subsectorIndex(row))) {
+        case CREATE:
+          row(Stage.NEW_SUBSECTORS).add(name).add(subsector);
+          break;
+        case MERGE:
+          row(Stage.SEEN_SUBSECTORS).add(name).add(subsector);
+          break;
+        default:
+          break;
+      }
+      row(Stage.IN_SUBSECTOR).add(name).add(id).add(counter).add(subsector);
+    }
+  }
 
-    return Mono.just(new BulkQuery(events.size(), new Query(BULK_EVENT_INSERT_CYPHER, params)));
+  /** @return true if a predecessor is one we know of and should link to */
+  private static boolean isLink(int prev) {
+    return prev != Chains.NONE && prev != Chains.UNKNOWN;
   }
 }
@@ -2,18 +2,21 @@ package io.sisu.groom;
 
 import io.sisu.groom.exceptions.GroomDatabaseException;
 import io.sisu.groom.exceptions.GroomDatabaseException.Problem;
-import io.sisu.util.BulkQuery;
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.neo4j.driver.*;
+import org.neo4j.driver.async.AsyncSession;
 import org.neo4j.driver.exceptions.ClientException;
 import org.neo4j.driver.reactive.RxResult;
 import org.neo4j.driver.reactive.RxSession;
-import org.neo4j.driver.reactive.RxTransactionWork;
-import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
@@ -65,42 +68,87 @@ public class Database implements Closeable {
     }
   }
 
-  private static RxTransactionWork<Publisher<Integer>> writeEvents(BulkQuery bulkQuery) {
-    return tx ->
-        Mono.from(tx.run(bulkQuery.query).consume())
-            .doOnSuccess(
-                r ->
-                    logger.info(
-                        "wrote {} events to database, creating {} nodes",
-                        bulkQuery.size,
-                        r.counters().nodesCreated()))
-            .doOnError(e -> logger.error("writeEvents ERROR!: {}", e.getLocalizedMessage()))
-            .then(Mono.just(bulkQuery.size));
+  public Mono<Void> write(List<Query> queries) {
+    return Flux.usingWhen(
+            Mono.fromSupplier(this::session), s -> write(s, queries), RxSession::close)
+        .then();
   }
 
-  public Mono<Integer> write(BulkQuery bulkQuery) {
-    return Flux.usingWhen(
-            Mono.fromSupplier(() -> connect().rxSession(SessionConfig.forDatabase(config.dbName))),
-            s -> s.writeTransaction(writeEvents(bulkQuery)),
-            RxSession::close)
-        .single();
+  /**
+   * Run queries in a single transaction on a session the caller holds on to, for work that runs
+   * often enough to be worth keeping its own session.
+   *
+   * @param session a session from {@link #session()}
+   * @param queries queries to run, in order
+   * @return a Mono that completes once the transaction has committed
+   */
+  public Mono<Void> write(RxSession session, List<Query> queries) {
+    return Flux.from(
+            session.writeTransaction(
+                tx ->
+                    Flux.fromIterable(queries)
+                        .map(tx::run)
+                        .flatMap(RxResult::consume)
+                        .doOnComplete(() -> logger.info("write(L<Q>) complete, executed {} queries", queries.size()))
+                        .doOnError(
+                            e -> logger.error("write(L<Q>) ERROR!: {}", e.getLocalizedMessage()))))
+        .then();
   }
 
-  public Mono<Void> write(List<Query> queries) {
+  /** @return a new session on the configured database, to be closed by the caller */
+  public RxSession session() {
+    return connect().rxSession(SessionConfig.forDatabase(config.dbName));
+  }
+
+  /**
+   * @param bookmark bookmark to start after, or null
+   * @return a new async session on the configured database, to be closed by the caller
+   */
+  public AsyncSession asyncSession(Bookmark bookmark) {
+    SessionConfig.Builder builder = SessionConfig.builder().withDatabase(config.dbName);
+    if (bookmark != null) {
+      builder.withBookmarks(bookmark);
+    }
+    return connect().asyncSession(builder.build());
+  }
+
+  /**
+   * Pick up a session's chains where they ended in the database, the first time this process
+   * writes to that session.
+   *
+   * @param session session about to be written to
+   * @return a Mono that completes once the session's chains have been resumed
+   */
+  public Mono<Void> resume(SessionState session) {
+    final Chains chains = session.getChains();
+    if (chains.isResumed()) {
+      return Mono.empty();
+    }
     return Flux.usingWhen(
             Mono.fromSupplier(() -> connect().rxSession(SessionConfig.forDatabase(config.dbName))),
             s ->
-                s.writeTransaction(
+                s.readTransaction(
                     tx ->
-                        Flux.fromIterable(queries)
-                            .map(tx::run)
-                            .flatMap(RxResult::consume)
-                            .doOnComplete(() -> logger.info("write(L<Q>) complete, executed {} queries", queries.size()))
-                            .doOnError(
-                                e ->
-                                    logger.error(
-                                        "write(L<Q>) ERROR!: {}", e.getLocalizedMessage()))),
+                        tx.run(
+                                Cypher.CHAIN_TAILS,
+                                Collections.singletonMap("session", session.getName()))
+                            .records()),
             RxSession::close)
+        .next()
+        .doOnNext(
+            record -> {
+              Map<Long, Integer> states = new HashMap<>();
+              for (Value pair : record.get("states").values()) {
+                if (!pair.get(0).isNull() && !pair.get(1).isNull()) {
+                  states.put(Long.parseLong(pair.get(0).asString()), pair.get(1).asInt());
+                }
+              }
+              chains.resume(
+                  record.get("tic").isNull() ? Chains.NONE : record.get("tic").asInt(),
+                  record.get("counter").isNull() ? Chains.NONE : record.get("counter").asInt(),
+                  states);
+              logger.info("resumed chains for session {}", session);
+            })
         .then();
   }
 
@@ -0,0 +1,73 @@
+package io.sisu.groom;
+
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.util.BulkQuery;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Locale;
+import org.neo4j.driver.Query;
+import reactor.core.publisher.Mono;
+
+/**
+ * Where the pipeline stores events once they've been batched and compiled.
+ *
+ * <p>Sinks take the same compiled statements (see {@link Cypher}), so everything groom does of
+ * its own, from decoding through compiling, happens the same way whatever the sink. {@link
+ * Neo4jSink} sends them to the database; {@link MemoryGraphSink} applies them to an in-process
+ * graph with the same nodes and relationships, which makes it possible to load-test groom without
+ * a database and to tell whether a slowdown is groom's or Neo4j's.
+ *
+ * <p>Writes for a lane are issued one at a time, but different lanes write concurrently.
+ */
+public interface EventSink extends Closeable {
+
+  /** @return the sink chosen by the configuration */
+  static EventSink open(Config config) {
+    return config.sink == Sink.MEMORY ? new MemoryGraphSink() : new Neo4jSink(config);
+  }
+
+  enum Sink {
+    /** Write to the configured Neo4j database. */
+    NEO4J,
+    /** Keep the graph in memory, for measuring groom without a database. */
+    MEMORY;
+
+    public static Sink fromString(String value) {
+      return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public String toString() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * Pick up a session's chains where they ended in the sink, the first time this process writes
+   * to that session.
+   *
+   * @param session session about to be written to
+   * @return a Mono that completes once the session's chains have been resumed
+   */
+  Mono<Void> resume(SessionState session);
+
+  /**
+   * Store a batch in a single transaction.
+   *
+   * @param lane writer lane the batch came from
+   * @param bulkQuery the batch's compiled statements
+   * @return a Mono of the number of events stored
+   */
+  Mono<Integer> write(int lane, BulkQuery bulkQuery);
+
+  /**
+   * Move CURRENT_STATE for a set of actors.
+   *
+   * @param query a query from {@link CurrentStates#drain()}
+   * @return a Mono that completes once the update is stored
+   */
+  Mono<Void> moveCurrentStates(Query query);
+
+  @Override
+  void close() throws IOException;
+}
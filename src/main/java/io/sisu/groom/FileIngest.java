@@ -0,0 +1,187 @@
+package io.sisu.groom;
+
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventDecoder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads recorded telemetry logs (newline-delimited JSON, like {@code 10k.log}) without going
+ * through UDP.
+ *
+ * <p>Each file is memory-mapped in chunks that end on a line boundary. Chunks are decoded in
+ * parallel, but their events are handed on strictly in file order so sessions stay ordered exactly
+ * as they were recorded.
+ */
+public class FileIngest implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(FileIngest.class);
+
+  protected static final int CHUNK_SIZE = 4 << 20;
+
+  private final ExecutorService decoders;
+  private final int window;
+  private final String session;
+  private final int chunkSize;
+
+  private final LongAdder events = new LongAdder();
+  private final LongAdder invalid = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  /**
+   * @param threads number of decoding threads
+   * @param session session for events that don't carry one, or null to use each file's name
+   */
+  public FileIngest(int threads, String session) {
+    this(threads, session, CHUNK_SIZE);
+  }
+
+  protected FileIngest(int threads, String session, int chunkSize) {
+    final AtomicInteger count = new AtomicInteger();
+    this.decoders =
+        Executors.newFixedThreadPool(
+            threads,
+            r -> {
+              Thread t = new Thread(r, "groom-ingest-" + count.getAndIncrement());
+              t.setDaemon(true);
+              return t;
+            });
+    // Enough chunks in flight to keep every thread busy while the oldest is being handed on.
+    this.window = threads * 2;
+    this.session = session;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Decode every event in the given files, in order.
+   *
+   * @param files telemetry logs
+   * @param onEvent receives each valid event on the calling thread, in file order
+   * @throws IOException if a file can't be read
+   */
+  public void ingest(List<Path> files, Consumer<Event> onEvent) throws IOException {
+    for (Path file : files) {
+      ingest(file, onEvent);
+    }
+  }
+
+  private void ingest(Path file, Consumer<Event> onEvent) throws IOException {
+    final String fileSession = session != null ? session : sessionFor(file);
+    final Deque<Future<List<Event>>> pending = new ArrayDeque<>(window);
+
+    logger.info("ingesting {} as session '{}'", file, fileSession);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      long position = 0;
+
+      while (position < size) {
+        MappedByteBuffer chunk = null;
+        int length = 0;
+        for (long want = chunkSize; length == 0; want *= 2) {
+          chunk = channel.map(MapMode.READ_ONLY, position, Math.min(want, size - position));
+          if (position + chunk.limit() == size) {
+            length = chunk.limit();
+          } else {
+            // Cut the chunk after its last complete line; the rest starts the next chunk. A line
+            // longer than the chunk just means mapping a bigger one.
+            length = lastLineEnd(chunk);
+            chunk.limit(length);
+          }
+        }
+        position += length;
+        bytes.add(length);
+
+        if (pending.size() == window) {
+          publish(pending.removeFirst(), onEvent);
+        }
+        final MappedByteBuffer lines = chunk;
+        pending.addLast(decoders.submit(() -> decode(lines, fileSession)));
+      }
+      while (!pending.isEmpty()) {
+        publish(pending.removeFirst(), onEvent);
+      }
+    } finally {
+      pending.forEach(future -> future.cancel(true));
+    }
+  }
+
+  private static int lastLineEnd(MappedByteBuffer chunk) {
+    for (int i = chunk.limit() - 1; i >= 0; i--) {
+      if (chunk.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  private List<Event> decode(MappedByteBuffer chunk, String session) {
+    final List<Event> decoded = new ArrayList<>();
+    EventDecoder.decodeLines(
+        Unpooled.wrappedBuffer(chunk),
+        session,
+        decoded::add,
+        e -> {
+          invalid.increment();
+          logger.debug("skipping invalid line: {}", e.getMessage());
+        });
+    return decoded;
+  }
+
+  private void publish(Future<List<Event>> chunk, Consumer<Event> onEvent) throws IOException {
+    final List<Event> decoded;
+    try {
+      decoded = chunk.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while ingesting", e);
+    } catch (ExecutionException e) {
+      throw new IOException("failed to decode chunk", e.getCause());
+    }
+    decoded.forEach(onEvent);
+    events.add(decoded.size());
+  }
+
+  static String sessionFor(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  /** @return the number of valid events decoded so far */
+  public long events() {
+    return events.sum();
+  }
+
+  /** @return the number of lines that failed to decode so far */
+  public long invalid() {
+    return invalid.sum();
+  }
+
+  /** @return the number of bytes read so far */
+  public long bytes() {
+    return bytes.sum();
+  }
+
+  @Override
+  public void close() {
+    decoders.shutdownNow();
+  }
+}
@@ -3,22 +3,47 @@ package io.sisu.groom;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Slf4jReporter;
 import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.dropwizard.DropwizardConfig;
 import io.micrometer.core.instrument.dropwizard.DropwizardMeterRegistry;
 import io.micrometer.core.instrument.util.HierarchicalNameMapper;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.netty.buffer.ByteBuf;
 import io.sisu.groom.events.Event;
-import io.sisu.groom.exceptions.InvalidEventException;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.EventDecoder;
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.neo4j.driver.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.exceptions.SessionExpiredException;
+import org.neo4j.driver.exceptions.TransientException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import reactor.netty.Connection;
-import reactor.netty.udp.UdpServer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
 public class GroomApplication {
   private static final Logger logger;
 
+  /** Longest the shutdown hook waits for queued events to be stored and everything closed. */
+  private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(60);
+
   private static final String banner =
       "\n"
           + "          _____ ______  _____  _____ ___  ___\n"
@@ -50,58 +75,308 @@ public class GroomApplication {
   }
 
   public void run(Config config) throws Exception {
-    final Duration windowDuration = Duration.ofSeconds(config.flushInterval);
-
-    try (Database db = new Database(config, config.username, config.password)) {
-      // Make sure we can connect
-      db.connect();
-
-      // Where the magic happens! Listen for a UDP stream of Doom Telemetry events and
-      // batch insert them into the database.
-      Connection conn =
-          UdpServer.create()
-              .host(config.udpHost)
-              .port(config.udpPort)
-              .handle(
-                  (in, out) ->
-                      in.receive()
-                          .asString()
-                          .name("incoming_strings")
-                          .metrics()
-                          .map(Event::fromJson) // Filter out invalid / unwanted elements
-                          .name("incoming_events")
-                          .metrics()
-                          .onErrorContinue(
-                              InvalidEventException.class,
-                              (e, o) -> logger.error("Crap event: " + e.getMessage()))
-                          .bufferTimeout(
-                              config.bufferSize, windowDuration) // Buffer a list of events
-                          .concatMap(
-                              // Create a completely separate stream from here on, as the
-                              // handler won't end due to UDPs nature
-                              l ->
-                                  Cypher.compileBulkEventComponentInsert(l)
-                                      .flatMap(db::write)
-                                      .then(db.write(Cypher.THREADING_QUERIES))
-                                      .name("stored_bulks")
-                                      .metrics())
-                          .doOnComplete(() -> logger.info("udp handler completed")))
-              .doOnBound(
-                  connection ->
-                      logger.info(
-                          "now listening on {}:{} (send ctrl-c to shutdown)",
-                          config.udpHost,
-                          config.udpPort))
-              .bindNow(Duration.ofSeconds(15));
-
-      // Try to be kind and use a shutdown hook. This will hopefully let some data flush through.
+    // Counted down once everything, the sink included, has been closed.
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    // Connects straight away when writing to Neo4j, so we find out now if we can't.
+    try (EventSink sink = EventSink.open(config)) {
+
+      // Every listener pushes its decoded events into the same bounded handoff. Each client is
+      // pinned to one listener and each session to one writer lane, so per-session ordering
+      // survives the merge.
+      Sessions sessions = new Sessions();
+      EventBatch.Pool batches = new EventBatch.Pool(config.bufferSize, sessions);
+      Handoff handoff = new Handoff(config, sessions);
+      CurrentStates currentStates = new CurrentStates();
+
+      // Optionally spool every datagram to disk until the events it carried have been stored.
+      final Spool spool =
+          config.spoolDir == null
+              ? null
+              : new Spool(
+                  Paths.get(config.spoolDir), config.spoolSegmentMb << 20, config.udpListeners);
+
+      // Each lane sizes its batches to keep its own commits near the target
+      final List<BatchController> controllers = new ArrayList<>(handoff.lanes());
+      for (int lane = 0; lane < handoff.lanes(); lane++) {
+        controllers.add(BatchController.forLane(config, lane));
+      }
+
+      // Where the magic happens! Batch the merged stream of Doom Telemetry events and bulk
+      // insert them into the sink. Each writer lane has its own sessions, so lanes can insert
+      // in parallel while every session's batches are still written one at a time, in order.
+      Mono<Void> pipeline =
+          Flux.range(0, handoff.lanes())
+              .flatMap(
+                  lane -> {
+                    final BatchController controller = controllers.get(lane);
+                    final Timer waiting = Stages.timer(Stages.WAIT, lane);
+                    final Timer compiling = Stages.timer(Stages.COMPILE, lane);
+                    final Timer writing = Stages.timer(Stages.WRITE, lane);
+                    final Timer age = Stages.eventAge(lane);
+                    final Counter deadLettered =
+                        Metrics.counter("dead_lettered_batches", "lane", String.valueOf(lane));
+                    return handoff
+                        // Drain events straight into reusable columnar batches
+                        .batches(lane, batches, controller)
+                        .concatMap(
+                            batch -> {
+                              waiting.record(
+                                  System.nanoTime() - batch.handedOffNanos(),
+                                  TimeUnit.NANOSECONDS);
+                              final long received = batch.receivedNanos();
+                              final long[] oldestSpooled = batch.oldestSpoolPositions();
+                              final long[] spooled = batch.spoolPositions();
+                              final int events = batch.size();
+                              final Map<CurrentStates.ActorKey, Integer> touched =
+                                  CurrentStates.touched(batch);
+                              final Map<SessionState, Chains.Span> spans = batch.spans();
+                              return Flux.fromIterable(batch.sessions())
+                                  .concatMap(session -> retrying(sink.resume(session)))
+                                  .then(
+                                      Mono.defer(
+                                          () -> {
+                                            final long start = System.nanoTime();
+                                            try {
+                                              return Cypher.compileBulkEventComponentInsert(batch);
+                                            } finally {
+                                              compiling.record(
+                                                  System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                                            }
+                                          }))
+                                  // The batch is fully copied into query params once compiled
+                                  .doFinally(signal -> batches.release(batch))
+                                  .flatMap(
+                                      params -> {
+                                        final long start = System.nanoTime();
+                                        return retrying(sink.write(lane, params))
+                                            .doOnSuccess(
+                                                ignored -> {
+                                                  final long took = System.nanoTime() - start;
+                                                  writing.record(took, TimeUnit.NANOSECONDS);
+                                                  controller.stored(params.size, took);
+                                                });
+                                      })
+                                  .doOnSuccess(
+                                      ignored -> {
+                                        currentStates.stored(touched);
+                                        if (received != 0) {
+                                          age.record(
+                                              System.nanoTime() - received, TimeUnit.NANOSECONDS);
+                                        }
+                                        handoff.stored(lane, oldestSpooled, spooled);
+                                      })
+                                  // Retrying won't help, so give up on the batch rather than
+                                  // hold up the lane for good.
+                                  .onErrorResume(
+                                      e -> {
+                                        deadLettered.increment();
+                                        logger.error(
+                                            "giving up on a batch of {} events in lane {},"
+                                                + " keeping it spooled: {}",
+                                            events,
+                                            lane,
+                                            e.getMessage());
+                                        // Later batches mustn't link to what was never written,
+                                        // and a restart has to replay it.
+                                        spans.forEach(SessionState::lose);
+                                        handoff.deadLettered(lane, oldestSpooled);
+                                        return Mono.empty();
+                                      })
+                                  .name("stored_bulks")
+                                  .tag("lane", String.valueOf(lane))
+                                  .metrics();
+                            },
+                            1); // Keep at most one batch waiting per lane
+                  },
+                  handoff.lanes(),
+                  1)
+              .doOnComplete(() -> logger.info("event pipeline completed"))
+              .then()
+              .cache();
+      pipeline.subscribe();
+      Metrics.gauge("batches_in_use", batches, EventBatch.Pool::inUse);
+
+      // CURRENT_STATE is maintained off to the side, on its own cadence, so it never holds up an
+      // insert. Sessions are moved independently, as many at once as there are writer lanes. The
+      // spool is only committed once a pass has covered what was stored.
+      StateMaintainer maintainer =
+          new StateMaintainer(
+              sink,
+              currentStates,
+              Duration.ofSeconds(config.stateInterval),
+              config.stateBacklog,
+              config.writers,
+              handoff::storedSpoolPositions,
+              spool == null ? mark -> {} : spool::commit);
+      maintainer.start();
+
+      final AdminServer admin;
+      if (config.httpPort == 0) {
+        admin = null;
+      } else {
+        // Only kept when it can be scraped, as it holds every percentile histogram in memory.
+        PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(prometheus);
+        admin =
+            AdminServer.bind(
+                config,
+                prometheus,
+                controllers,
+                () -> {
+                  Map<String, Object> queues = new LinkedHashMap<>();
+                  queues.put("handoff", handoff.depth());
+                  queues.put("batchesInUse", batches.inUse());
+                  queues.put("stateBacklog", currentStates.size());
+                  return queues;
+                });
+      }
+
+      if (config.ingest) {
+        ingest(config, handoff, pipeline, maintainer);
+        if (admin != null) {
+          admin.close();
+        }
+        return;
+      }
+
+      if (spool != null) {
+        // Anything spooled but never stored goes in ahead of new traffic, without being shed.
+        long replayed =
+            spool.replay((datagram, position) -> decode(datagram, position, 0, handoff::put));
+        logger.info("replayed {} spooled datagram(s) from {}", replayed, config.spoolDir);
+      }
+
+      // Counters are checked as events come off the wire, before groom itself can shed any.
+      LossMonitor lossMonitor =
+          new LossMonitor(
+              Duration.ofSeconds(config.lossReportInterval),
+              Duration.ofSeconds(config.sessionIdleTimeout));
+      Timer decoding = Stages.timer(Stages.DECODE);
+      UdpListener listener =
+          UdpListener.bind(
+              config,
+              (datagram, index) -> {
+                final long received = System.nanoTime();
+                decode(
+                    datagram,
+                    spool == null ? 0 : spool.stream(index).append(datagram),
+                    received,
+                    event -> {
+                      lossMonitor.record(event);
+                      handoff.offer(event);
+                    });
+                decoding.record(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+              });
+      logger.info(
+          "listening on {}:{} with {} channel(s) (send ctrl-c to shutdown)",
+          config.udpHost,
+          config.udpPort,
+          config.udpListeners);
+
+      // Try to be kind and use a shutdown hook. Closing the handoff flushes whatever is still
+      // queued through to the database, after which the rest is closed down below, while the
+      // sink is still open. The hook only has to wait for that.
       Runtime.getRuntime()
-          .addShutdownHook(new Thread(() -> conn.disposeNow(Duration.ofSeconds(15))));
+          .addShutdownHook(
+              new Thread(
+                  () -> {
+                    listener.close();
+                    handoff.close();
+                    try {
+                      if (!closed.await(SHUTDOWN_TIMEOUT.getSeconds(), TimeUnit.SECONDS)) {
+                        logger.warn("gave up waiting for a clean shutdown");
+                      }
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                  }));
 
-      conn.onDispose().block();
+      pipeline.block();
+      lossMonitor.close();
+      // The last CURRENT_STATE pass commits the spool, so it has to run before both are closed.
+      maintainer.close();
+      if (admin != null) {
+        admin.close();
+      }
+      if (spool != null) {
+        try {
+          spool.close();
+        } catch (IOException e) {
+          logger.warn("failed to close spool: {}", e.getMessage());
+        }
+      }
+    } finally {
+      closed.countDown();
     }
   }
 
+  /**
+   * Hold a write (and everything queued behind it) until the database comes back. Only transient
+   * failures are retried; anything else, like a constraint violation, fails the write.
+   */
+  static <T> Mono<T> retrying(Mono<T> write) {
+    return write.retryWhen(
+        Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(250))
+            .maxBackoff(Duration.ofSeconds(10))
+            .filter(GroomApplication::isTransient)
+            .doBeforeRetry(
+                signal ->
+                    logger.warn("write failed, retrying: {}", signal.failure().getMessage())));
+  }
+
+  /** @return true if the failure might go away by trying again */
+  static boolean isTransient(Throwable e) {
+    return e instanceof TransientException
+        || e instanceof ServiceUnavailableException
+        || e instanceof SessionExpiredException;
+  }
+
+  /** Push recorded telemetry files through the pipeline as fast as the database will take it. */
+  private static void ingest(
+      Config config, Handoff handoff, Mono<Void> pipeline, StateMaintainer maintainer)
+      throws IOException {
+    final long start = System.nanoTime();
+
+    try (FileIngest ingest = new FileIngest(config.ingestThreads, config.ingestSession)) {
+      // Nothing is lost by waiting on a full handoff here, so never apply the overflow policy.
+      ingest.ingest(
+          config.ingestFiles.stream().map(Paths::get).collect(Collectors.toList()), handoff::put);
+
+      // Flush what's left and wait for the last batch to be stored.
+      handoff.close();
+      pipeline.block();
+      maintainer.close();
+
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      logger.info(
+          "ingested {} events from {} file(s) ({} MiB) in {}s [{} ev/s], "
+              + "skipped {} invalid line(s)",
+          ingest.events(),
+          config.ingestFiles.size(),
+          String.format("%.1f", ingest.bytes() / (double) (1 << 20)),
+          String.format("%.1f", seconds),
+          String.format("%.0f", ingest.events() / seconds),
+          ingest.invalid());
+    }
+  }
+
+  /**
+   * Decode a datagram in place, tagging each event with the spool position of the datagram it came
+   * from and when it was received (0 if not known), and skipping over any invalid / unwanted lines.
+   */
+  private static void decode(
+      ByteBuf datagram, long spoolPosition, long receivedNanos, Consumer<Event> onEvent) {
+    EventDecoder.decodeDatagram(
+        datagram,
+        event -> {
+          event.setSpoolPosition(spoolPosition);
+          event.setReceivedNanos(receivedNanos);
+          onEvent.accept(event);
+        },
+        e -> logger.error("Crap event: " + e.getMessage()));
+  }
+
   static void prepareMetricSystem() {
     DropwizardConfig consoleConfig =
         new DropwizardConfig() {
@@ -0,0 +1,571 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.MoveCoalescer;
+import io.sisu.groom.events.OffHeapEventBuffer;
+import io.sisu.groom.events.ReorderBuffer;
+import io.sisu.groom.events.SpoolPosition;
+import io.sisu.groom.sessions.Sessions;
+import io.sisu.util.BoundedQueue;
+import io.sisu.util.RingBuffer;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * The fixed-capacity handoff between the UDP event loops and the database writers.
+ *
+ * <p>Listeners {@link #offer(Event)} decoded events into bounded, lock-free rings, one per writer
+ * lane. Every session is pinned to a single lane, so its events stay in order while distinct
+ * sessions can be written in parallel. Each lane has its own drain thread that pulls events out
+ * into {@link EventBatch}es and only does so while that lane's writer has asked for another batch,
+ * so when the database falls behind, events back up in the rings and nowhere else. Once a ring is
+ * full the configured {@link Overflow} policy decides what gets dropped, making memory use under
+ * overload a function of configuration rather than of how long the overload lasts.
+ *
+ * <p>If given {@link ReorderBuffer}s, each drainer first puts its lane's events back into
+ * per-session counter order. If given {@link MoveCoalescer}s, each drainer then runs every event
+ * through its lane's coalescer on the way into a batch.
+ */
+public class Handoff implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(Handoff.class);
+
+  public enum Overflow {
+    /** Reject the incoming event. */
+    DROP_NEWEST,
+    /** Evict the oldest queued event to make room. */
+    DROP_OLDEST,
+    /**
+     * Reject high-volume, low-value events (see {@link #EXPENDABLE}) once the ring passes its high
+     * water mark, keeping the remaining room for everything else.
+     */
+    DROP_BY_TYPE;
+
+    public static Overflow fromString(String value) {
+      return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    @Override
+    public String toString() {
+      return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+  }
+
+  public static final EnumSet<Event.Type> EXPENDABLE =
+      EnumSet.of(Event.Type.MOVE, Event.Type.ENTER_SECTOR, Event.Type.ENTER_SUBSECTOR);
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /** One writer's share of the handoff. */
+  private static class Lane {
+    private final BoundedQueue<Event> queue;
+    private final ReorderBuffer reorder;
+    private final MoveCoalescer coalescer;
+    private final int highWaterMark;
+
+    // Spool positions handed to and stored by this lane, per spool stream (see
+    // storedSpoolPositions()), and a mask of the streams it has been handed anything from.
+    private final AtomicLong streams = new AtomicLong();
+    private final AtomicLongArray queued = new AtomicLongArray(SpoolPosition.MAX_STREAMS);
+    private final AtomicLongArray stored = new AtomicLongArray(SpoolPosition.MAX_STREAMS);
+
+    // Events taken out of order can be older than what's already been stored. The oldest position
+    // held by the reorder buffer or the batch being filled, and the oldest of each batch handed
+    // off but not yet stored, hold commits back until they're stored too.
+    private final AtomicLongArray held = new AtomicLongArray(SpoolPosition.MAX_STREAMS);
+    private final TreeMap<Long, Integer> unstored = new TreeMap<>();
+
+    // The oldest position of any batch given up on, which commits never go past.
+    private final AtomicLongArray lost = new AtomicLongArray(SpoolPosition.MAX_STREAMS);
+
+    private Lane(BoundedQueue<Event> queue, ReorderBuffer reorder, MoveCoalescer coalescer) {
+      this.queue = queue;
+      this.reorder = reorder;
+      this.coalescer = coalescer;
+      this.highWaterMark = queue.capacity() - (queue.capacity() >> 2);
+    }
+  }
+
+  private final Sessions sessions;
+  private final Lane[] lanes;
+  private final Overflow overflow;
+
+  private final Counter offered;
+  private final Counter[] dropped;
+
+  private volatile boolean completed = false;
+
+  public Handoff(Config config, Sessions sessions) {
+    this(
+        sessions,
+        queues(config, sessions),
+        config.overflowPolicy,
+        reorderBuffers(config, sessions),
+        coalescers(config, sessions));
+  }
+
+  public Handoff(BoundedQueue<Event> queue, Overflow overflow) {
+    this(queue, overflow, null);
+  }
+
+  public Handoff(BoundedQueue<Event> queue, Overflow overflow, MoveCoalescer coalescer) {
+    this(null, Collections.singletonList(queue), overflow, Collections.singletonList(coalescer));
+  }
+
+  /**
+   * @param sessions registry used to pin sessions to lanes, only needed with more than one lane
+   * @param queues one queue per writer lane
+   * @param overflow what to drop when a lane's queue is full
+   * @param coalescers one coalescer (or null) per lane
+   */
+  public Handoff(
+      Sessions sessions,
+      List<BoundedQueue<Event>> queues,
+      Overflow overflow,
+      List<MoveCoalescer> coalescers) {
+    this(sessions, queues, overflow, Collections.nCopies(queues.size(), null), coalescers);
+  }
+
+  /**
+   * @param sessions registry used to pin sessions to lanes, only needed with more than one lane
+   * @param queues one queue per writer lane
+   * @param overflow what to drop when a lane's queue is full
+   * @param reorderBuffers one reorder buffer (or null) per lane
+   * @param coalescers one coalescer (or null) per lane
+   */
+  public Handoff(
+      Sessions sessions,
+      List<BoundedQueue<Event>> queues,
+      Overflow overflow,
+      List<ReorderBuffer> reorderBuffers,
+      List<MoveCoalescer> coalescers) {
+    this.sessions = sessions;
+    this.overflow = overflow;
+    this.lanes = new Lane[queues.size()];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane(queues.get(i), reorderBuffers.get(i), coalescers.get(i));
+      Tags tags = Tags.of("lane", String.valueOf(i));
+      Metrics.gauge("handoff_depth", tags, queues.get(i), BoundedQueue::size);
+      Metrics.gauge("handoff_capacity", tags, queues.get(i), BoundedQueue::capacity);
+      if (reorderBuffers.get(i) != null) {
+        Metrics.gauge("reorder_held", tags, reorderBuffers.get(i), ReorderBuffer::size);
+      }
+    }
+
+    offered = Metrics.counter("incoming_events");
+    dropped = new Counter[Event.Type.values().length];
+    for (Event.Type type : Event.Type.values()) {
+      dropped[type.ordinal()] =
+          Metrics.counter("handoff_dropped", "type", type.toString().toLowerCase(Locale.ROOT));
+    }
+  }
+
+  private static List<BoundedQueue<Event>> queues(Config config, Sessions sessions) {
+    // Split the configured capacity across the lanes, but always leave room for a full batch.
+    final int size = Math.max(config.bufferSize, config.queueSize / config.writers);
+    List<BoundedQueue<Event>> queues = new ArrayList<>(config.writers);
+    for (int i = 0; i < config.writers; i++) {
+      queues.add(
+          config.offHeapQueue ? new OffHeapEventBuffer(size, sessions) : new RingBuffer<>(size));
+    }
+    return queues;
+  }
+
+  private static List<ReorderBuffer> reorderBuffers(Config config, Sessions sessions) {
+    List<ReorderBuffer> reorderBuffers = new ArrayList<>(config.writers);
+    for (int i = 0; i < config.writers; i++) {
+      reorderBuffers.add(
+          config.reorderMs > 0
+              ? new ReorderBuffer(
+                  sessions, TimeUnit.MILLISECONDS.toNanos(config.reorderMs), config.reorderDepth)
+              : null);
+    }
+    return reorderBuffers;
+  }
+
+  private static List<MoveCoalescer> coalescers(Config config, Sessions sessions) {
+    List<MoveCoalescer> coalescers = new ArrayList<>(config.writers);
+    for (int i = 0; i < config.writers; i++) {
+      coalescers.add(config.coalesceMoves ? new MoveCoalescer(sessions) : null);
+    }
+    return coalescers;
+  }
+
+  private Lane lane(Event event) {
+    if (lanes.length == 1) {
+      return lanes[0];
+    }
+    return lanes[sessions.get(event.getSession()).getId() % lanes.length];
+  }
+
+  /**
+   * Queue an event for the writer, applying the overflow policy if the ring is full. Safe to call
+   * from any number of threads.
+   *
+   * @param event decoded event
+   * @return true if the event was queued
+   */
+  public boolean offer(Event event) {
+    offered.increment();
+    final Lane lane = lane(event);
+
+    if (overflow == Overflow.DROP_BY_TYPE
+        && EXPENDABLE.contains(event.getType())
+        && lane.queue.size() >= lane.highWaterMark) {
+      return drop(event);
+    }
+    if (enqueue(lane, event)) {
+      return true;
+    }
+    if (overflow != Overflow.DROP_OLDEST) {
+      return drop(event);
+    }
+    do {
+      Event evicted = lane.queue.poll();
+      if (evicted != null) {
+        drop(evicted);
+      }
+    } while (!enqueue(lane, event));
+    return true;
+  }
+
+  /**
+   * Queue an event, waiting for room instead of applying the overflow policy. For sources that can
+   * be paused without losing anything, like a spool replay.
+   *
+   * @param event decoded event
+   */
+  public void put(Event event) {
+    offered.increment();
+    final Lane lane = lane(event);
+    while (!enqueue(lane, event)) {
+      LockSupport.parkNanos(IDLE_PARK_NANOS);
+    }
+  }
+
+  private boolean enqueue(Lane lane, Event event) {
+    if (!lane.queue.offer(event)) {
+      return false;
+    }
+    final long position = event.getSpoolPosition();
+    if (position > 0) {
+      final int stream = SpoolPosition.stream(position);
+      lane.queued.accumulateAndGet(stream, position, Math::max);
+      if ((lane.streams.get() & 1L << stream) == 0) {
+        lane.streams.accumulateAndGet(1L << stream, (mask, bit) -> mask | bit);
+      }
+    }
+    return true;
+  }
+
+  private boolean drop(Event event) {
+    dropped[event.getType().ordinal()].increment();
+    return false;
+  }
+
+  /** @return the number of writer lanes */
+  public int lanes() {
+    return lanes.length;
+  }
+
+  /** @return the number of events currently waiting in the rings */
+  public int depth() {
+    int depth = 0;
+    for (Lane lane : lanes) {
+      depth += lane.queue.size();
+    }
+    return depth;
+  }
+
+  /**
+   * Record that a batch drained from a lane has been stored.
+   *
+   * @param lane lane the batch came from
+   * @param oldestSpoolPositions the batch's {@link EventBatch#oldestSpoolPositions()}
+   * @param spoolPositions the batch's {@link EventBatch#spoolPositions()}
+   */
+  public void stored(int lane, long[] oldestSpoolPositions, long[] spoolPositions) {
+    final Lane l = lanes[lane];
+    for (int stream = 0; stream < spoolPositions.length; stream++) {
+      if (spoolPositions[stream] == 0) {
+        continue;
+      }
+      if (l.reorder != null) {
+        unhold(l, oldestSpoolPositions[stream]);
+      }
+      l.stored.accumulateAndGet(stream, spoolPositions[stream], Math::max);
+    }
+  }
+
+  /**
+   * Record that a batch drained from a lane will never be stored. From then on the spool is never
+   * committed past it, so it's replayed after a restart.
+   *
+   * @param lane lane the batch came from
+   * @param oldestSpoolPositions the batch's {@link EventBatch#oldestSpoolPositions()}
+   */
+  public void deadLettered(int lane, long[] oldestSpoolPositions) {
+    final Lane l = lanes[lane];
+    for (int stream = 0; stream < oldestSpoolPositions.length; stream++) {
+      final long oldest = oldestSpoolPositions[stream];
+      if (oldest == 0) {
+        continue;
+      }
+      if (l.reorder != null) {
+        unhold(l, oldest);
+      }
+      l.lost.accumulateAndGet(stream, oldest, (lost, p) -> lost == 0 ? p : Math.min(lost, p));
+    }
+  }
+
+  private static void unhold(Lane lane, long oldestSpoolPosition) {
+    synchronized (lane.unstored) {
+      lane.unstored.computeIfPresent(oldestSpoolPosition, (p, n) -> n == 1 ? null : n - 1);
+    }
+  }
+
+  /**
+   * Work out how far each spool stream can safely be committed, see {@link
+   * #storedSpoolPosition(int)}.
+   *
+   * @return a spool position per stream, indexed by stream, or 0 where nothing can be committed
+   */
+  public long[] storedSpoolPositions() {
+    long streams = 0;
+    for (Lane lane : lanes) {
+      streams |= lane.streams.get();
+    }
+    final long[] positions = new long[SpoolPosition.MAX_STREAMS];
+    for (; streams != 0; streams &= streams - 1) {
+      final int stream = Long.numberOfTrailingZeros(streams);
+      positions[stream] = storedSpoolPosition(stream);
+    }
+    return positions;
+  }
+
+  /**
+   * Work out how far a spool stream can safely be committed. Lanes store at their own pace, so
+   * this is the newest position stored by the slowest lane that still has events from the stream
+   * outstanding, or the newest stored overall if every lane has caught up. Either way it stays
+   * short of any event reordered out of a lane but not yet stored, and of any batch given up on.
+   *
+   * @param stream spool stream
+   * @return a position in that stream, or 0 if nothing can be committed yet
+   */
+  public long storedSpoolPosition(int stream) {
+    long safe = Long.MAX_VALUE;
+    long newest = 0;
+    long oldestHeld = Long.MAX_VALUE;
+    for (Lane lane : lanes) {
+      final long stored = lane.stored.get(stream);
+      newest = Math.max(newest, stored);
+      if (lane.queued.get(stream) > stored) {
+        safe = Math.min(safe, stored);
+      }
+      // Read before the batches handed off, which the drainer adds to before clearing this.
+      final long held = lane.held.get(stream);
+      if (held != 0) {
+        oldestHeld = Math.min(oldestHeld, held);
+      }
+      final long lost = lane.lost.get(stream);
+      if (lost != 0) {
+        oldestHeld = Math.min(oldestHeld, lost);
+      }
+      synchronized (lane.unstored) {
+        final Long unstored = lane.unstored.ceilingKey(SpoolPosition.of(stream, 0));
+        if (unstored != null && SpoolPosition.stream(unstored) == stream) {
+          oldestHeld = Math.min(oldestHeld, unstored);
+        }
+      }
+    }
+    final long committable = safe == Long.MAX_VALUE ? newest : safe;
+    return oldestHeld == Long.MAX_VALUE ? committable : Math.min(committable, oldestHeld - 1);
+  }
+
+  /**
+   * Drain the only lane into batches of a fixed size and window, see {@link #batches(int,
+   * EventBatch.Pool, BatchController)}.
+   */
+  public Flux<EventBatch> batches(EventBatch.Pool pool, int batchSize, Duration window) {
+    return batches(0, pool, BatchController.fixed(batchSize, window));
+  }
+
+  /**
+   * Drain a lane into batches on a dedicated thread. A batch is emitted once it holds the
+   * controller's batch size or its first event has waited the controller's window, and only when
+   * downstream has requested one. The controller is consulted afresh for every batch.
+   *
+   * @param lane lane to drain
+   * @param pool source of reusable batches
+   * @param controller decides the size and window of each batch
+   * @return a Flux of batches that completes once {@link #close()} has been called and the lane
+   *     has been drained
+   */
+  public Flux<EventBatch> batches(int lane, EventBatch.Pool pool, BatchController controller) {
+    return Flux.create(
+        sink -> {
+          final Timer batching = Stages.timer(Stages.BATCH, lane);
+          Thread drainer =
+              new Thread(
+                  () -> drain(lanes[lane], sink, pool, controller, batching),
+                  "groom-handoff-" + lane);
+          drainer.setDaemon(true);
+          drainer.start();
+        },
+        FluxSink.OverflowStrategy.ERROR);
+  }
+
+  private void drain(
+      Lane lane,
+      FluxSink<EventBatch> sink,
+      EventBatch.Pool pool,
+      BatchController controller,
+      Timer batching) {
+    final BoundedQueue<Event> queue = lane.queue;
+    final ReorderBuffer reorder = lane.reorder;
+    final MoveCoalescer coalescer = lane.coalescer;
+    EventBatch batch = pool.acquire();
+    int batchSize = controller.batchSize();
+    long deadline = Long.MAX_VALUE;
+
+    try {
+      while (!sink.isCancelled()) {
+        Event event = queue.poll();
+        if (reorder != null) {
+          final boolean pulled = event != null;
+          final long now = System.nanoTime();
+          event = pulled ? reorder.add(event, now) : null;
+          if (event == null) {
+            // Once closed and emptied, whatever is still held goes out without waiting.
+            event = reorder.poll(completed && !pulled ? Long.MAX_VALUE : now);
+          }
+          if (event == null && pulled) {
+            hold(lane, batch);
+            continue;
+          }
+        }
+        if (event != null) {
+          if (batch.isEmpty()) {
+            batchSize = controller.batchSize();
+            deadline = System.nanoTime() + controller.windowNanos();
+          }
+          if (coalescer != null) {
+            coalescer.add(batch, event);
+          } else {
+            batch.add(event);
+          }
+          if (reorder != null) {
+            hold(lane, batch);
+          }
+          if (batch.size() < batchSize) {
+            continue;
+          }
+        } else if (completed) {
+          break;
+        } else if (batch.isEmpty() || System.nanoTime() < deadline) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+          continue;
+        }
+
+        // Stop pulling from the ring until the writer is ready for another batch.
+        if (reorder != null) {
+          handingOff(lane, batch);
+        }
+        handOff(sink, batch, batching);
+        batch = pool.acquire();
+        deadline = Long.MAX_VALUE;
+        if (coalescer != null) {
+          coalescer.nextBatch();
+        }
+      }
+
+      if (!batch.isEmpty()) {
+        if (reorder != null) {
+          handingOff(lane, batch);
+        }
+        handOff(sink, batch, batching);
+      }
+      sink.complete();
+    } catch (Exception e) {
+      logger.error("handoff drainer failed: {}", e.getMessage());
+      sink.error(e);
+    } finally {
+      // Nothing reads the ring after its drainer, so off-heap memory can go back right away.
+      if (queue instanceof OffHeapEventBuffer) {
+        ((OffHeapEventBuffer) queue).close();
+      }
+    }
+  }
+
+  /** Publish the oldest spool position in each stream the lane's drainer has yet to hand off. */
+  private static void hold(Lane lane, EventBatch filling) {
+    for (long streams = lane.streams.get(); streams != 0; streams &= streams - 1) {
+      final int stream = Long.numberOfTrailingZeros(streams);
+      long held = lane.reorder.heldSpoolPosition(stream);
+      final long filled = filling.oldestSpoolPosition(stream);
+      if (filled != 0) {
+        held = held == 0 ? filled : Math.min(held, filled);
+      }
+      if (held != lane.held.get(stream)) {
+        lane.held.set(stream, held);
+      }
+    }
+  }
+
+  /** Keep holding a batch's oldest spool positions back from commits until the batch is stored. */
+  private static void handingOff(Lane lane, EventBatch batch) {
+    if (batch.spoolStreams() != 0) {
+      synchronized (lane.unstored) {
+        for (long streams = batch.spoolStreams(); streams != 0; streams &= streams - 1) {
+          final int stream = Long.numberOfTrailingZeros(streams);
+          lane.unstored.merge(batch.oldestSpoolPosition(stream), 1, Integer::sum);
+        }
+      }
+    }
+    for (long streams = lane.streams.get(); streams != 0; streams &= streams - 1) {
+      final int stream = Long.numberOfTrailingZeros(streams);
+      lane.held.set(stream, lane.reorder.heldSpoolPosition(stream));
+    }
+  }
+
+  /** Wait for the writer to ask for a batch, then give it this one. */
+  private static void handOff(FluxSink<EventBatch> sink, EventBatch batch, Timer batching) {
+    while (sink.requestedFromDownstream() == 0 && !sink.isCancelled()) {
+      LockSupport.parkNanos(IDLE_PARK_NANOS);
+    }
+    final long now = System.nanoTime();
+    if (batch.receivedNanos() != 0) {
+      batching.record(now - batch.receivedNanos(), TimeUnit.NANOSECONDS);
+    }
+    batch.handedOff(now);
+    sink.next(batch);
+  }
+
+  /**
+   * Stop the drainers once whatever is left in the rings has been batched, at which point each
+   * lane's drainer frees its ring if it's an {@link OffHeapEventBuffer}. Events offered after this
+   * may not be delivered.
+   */
+  @Override
+  public void close() {
+    completed = true;
+  }
+}
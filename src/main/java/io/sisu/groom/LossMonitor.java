@@ -0,0 +1,298 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.sisu.groom.events.Event;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+/**
+ * Accounts for every event counter as it arrives off the wire, before anything in groom can drop,
+ * reorder or fold it, to tell how much was lost on the way here.
+ *
+ * <p>Counters are sequential within a session, so a jump forward leaves a gap of missing counters.
+ * A counter below the highest seen either fills one of those gaps (late) or was seen already
+ * (duplicate); the most recent {@link #WINDOW} counters are remembered to tell which. Per session
+ * it publishes counters of received, late and duplicate events, plus gauges of the counters still
+ * missing and their share of the session. Missing events were lost before reaching groom, whereas
+ * groom's own shedding shows up as {@code handoff_dropped}; on Linux, {@code udp_rcvbuf_errors}
+ * further tells how many of the losses were datagrams the kernel dropped for want of socket buffer.
+ *
+ * <p>A summary of each active session's loss is logged periodically. A session that goes unheard
+ * from for the idle timeout is forgotten, metrics and all, so a long-running groom doesn't keep
+ * every session it ever saw; one heard from again afterwards starts over. Safe to call from any
+ * number of listener threads.
+ */
+public class LossMonitor implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(LossMonitor.class);
+
+  /** Number of counters below the highest that can be told apart as late or duplicate. */
+  static final int WINDOW = 4096;
+
+  private static final Path SNMP = Paths.get("/proc/net/snmp");
+
+  /** One session's counter accounting. */
+  static final class Sequence {
+    private final long[] seen = new long[WINDOW / 64];
+    private final List<Meter> meters = new ArrayList<>(5);
+    private boolean started = false;
+    // Whether anything arrived since the last sweep for idle sessions.
+    private boolean active = false;
+    private int first;
+    private int highest;
+
+    private long received = 0;
+    private long skipped = 0;
+    private long late = 0;
+    private long duplicates = 0;
+
+    // As of the last summary.
+    private long reportedReceived = 0;
+    private long reportedMissing = 0;
+
+    synchronized void record(int counter) {
+      active = true;
+      if (!started) {
+        started = true;
+        first = counter;
+        highest = counter;
+        mark(counter, true);
+        received++;
+        return;
+      }
+      if (counter > highest) {
+        final long gap = (long) counter - highest - 1;
+        skipped += gap;
+        // Forget whatever the window held for the counters it now moves over.
+        for (long c = highest + 1; c < counter && c <= highest + WINDOW; c++) {
+          mark((int) c, false);
+        }
+        highest = counter;
+        mark(counter, true);
+        received++;
+      } else if (counter < first) {
+        // The session started earlier than it first seemed to.
+        skipped += first - counter - 1;
+        first = counter;
+        if (highest - counter < WINDOW) {
+          mark(counter, true);
+        }
+        received++;
+      } else if (highest - counter >= WINDOW) {
+        // Too old to tell; assume it's filling a gap.
+        late++;
+        received++;
+      } else if (isMarked(counter)) {
+        duplicates++;
+      } else {
+        mark(counter, true);
+        late++;
+        received++;
+      }
+    }
+
+    private void mark(int counter, boolean on) {
+      final int bit = counter & (WINDOW - 1);
+      if (on) {
+        seen[bit >>> 6] |= 1L << bit;
+      } else {
+        seen[bit >>> 6] &= ~(1L << bit);
+      }
+    }
+
+    private boolean isMarked(int counter) {
+      final int bit = counter & (WINDOW - 1);
+      return (seen[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    synchronized long received() {
+      return received;
+    }
+
+    /** @return counters skipped over and never filled in */
+    synchronized long missing() {
+      return Math.max(0, skipped - late);
+    }
+
+    synchronized long late() {
+      return late;
+    }
+
+    synchronized long duplicates() {
+      return duplicates;
+    }
+
+    /** @return the share of the session's counters so far that never arrived */
+    synchronized double lossRatio() {
+      final long missing = missing();
+      return missing == 0 ? 0 : missing / (double) (received + missing);
+    }
+  }
+
+  private final Map<String, Sequence> sessions = new ConcurrentHashMap<>();
+  private final Disposable summaries;
+  private final Disposable sweeps;
+
+  /**
+   * @param summaryInterval time between logged summaries, or zero for none
+   * @param idleTimeout time a session can go unheard from before it's forgotten
+   */
+  public LossMonitor(Duration summaryInterval, Duration idleTimeout) {
+    if (Files.isReadable(SNMP)) {
+      FunctionCounter.builder("udp_rcvbuf_errors", SNMP, LossMonitor::rcvbufErrors)
+          .description("datagrams dropped by the kernel for lack of socket receive buffer")
+          .register(Metrics.globalRegistry);
+    }
+    summaries =
+        summaryInterval.isZero()
+            ? null
+            : Flux.interval(summaryInterval, summaryInterval).subscribe(tick -> summarize());
+    // Sweeping every half timeout forgets a session between one and one and a half timeouts in.
+    final Duration sweepInterval = idleTimeout.dividedBy(2);
+    sweeps = Flux.interval(sweepInterval, sweepInterval).subscribe(tick -> evictIdle());
+  }
+
+  /**
+   * Account for an event that has just arrived.
+   *
+   * @param event a freshly decoded Event
+   */
+  public void record(Event event) {
+    sequence(event.getSession()).record(event.getCounter());
+  }
+
+  Sequence sequence(String session) {
+    Sequence sequence = sessions.get(session);
+    if (sequence == null) {
+      sequence = sessions.computeIfAbsent(session, this::register);
+    }
+    return sequence;
+  }
+
+  private Sequence register(String session) {
+    Sequence sequence = new Sequence();
+    Tags tags = Tags.of("session", session);
+    counter("session_events_received", tags, sequence, Sequence::received);
+    counter("session_events_late", tags, sequence, Sequence::late);
+    counter("session_events_duplicate", tags, sequence, Sequence::duplicates);
+    // Late events fill gaps back in, so these can go down.
+    gauge("session_events_missing", tags, sequence, Sequence::missing);
+    gauge("session_loss_ratio", tags, sequence, Sequence::lossRatio);
+    return sequence;
+  }
+
+  private static void counter(
+      String name, Tags tags, Sequence sequence, ToDoubleFunction<Sequence> count) {
+    sequence.meters.add(
+        FunctionCounter.builder(name, sequence, count).tags(tags).register(Metrics.globalRegistry));
+  }
+
+  private static void gauge(
+      String name, Tags tags, Sequence sequence, ToDoubleFunction<Sequence> value) {
+    sequence.meters.add(
+        Gauge.builder(name, sequence, value).tags(tags).register(Metrics.globalRegistry));
+  }
+
+  /**
+   * Forget every session nothing has arrived for since the last sweep, logging what's left of its
+   * summary and removing its metrics.
+   */
+  void evictIdle() {
+    for (String name : sessions.keySet()) {
+      // Atomic with creating the session again, so its metrics aren't removed from under it.
+      sessions.computeIfPresent(
+          name,
+          (n, s) -> {
+            synchronized (s) {
+              if (s.active) {
+                s.active = false;
+                return s;
+              }
+            }
+            summarize(n, s);
+            s.meters.forEach(Metrics.globalRegistry::remove);
+            logger.debug("forgot idle session {}", n);
+            return null;
+          });
+    }
+  }
+
+  /** Log loss per session since the last summary, for every session heard from since. */
+  void summarize() {
+    sessions.forEach(LossMonitor::summarize);
+  }
+
+  private static void summarize(String name, Sequence s) {
+    final long received;
+    final long missing;
+    synchronized (s) {
+      received = s.received - s.reportedReceived;
+      missing = s.missing() - s.reportedMissing;
+      s.reportedReceived = s.received;
+      s.reportedMissing = s.missing();
+    }
+    if (received == 0 && missing == 0) {
+      return;
+    }
+    logger.info(
+        "session {}: received {}, missing {} ({}% lost), {} late and {} duplicate so far",
+        name,
+        received,
+        missing,
+        String.format("%.2f", 100.0 * Math.max(0, missing) / Math.max(1, received + missing)),
+        s.late(),
+        s.duplicates());
+  }
+
+  /** @return the kernel's count of UDP receive buffer errors, or NaN if it can't be read */
+  private static double rcvbufErrors(Path snmp) {
+    try {
+      // Two "Udp:" lines, the first naming the fields and the second holding their values.
+      List<String> lines = Files.readAllLines(snmp);
+      String[] names = null;
+      for (String line : lines) {
+        if (!line.startsWith("Udp:")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        if (names == null) {
+          names = fields;
+          continue;
+        }
+        for (int i = 1; i < names.length && i < fields.length; i++) {
+          if (names[i].equals("RcvbufErrors")) {
+            return Double.parseDouble(fields[i]);
+          }
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      logger.debug("could not read {}: {}", snmp, e.getMessage());
+    }
+    return Double.NaN;
+  }
+
+  @Override
+  public void close() {
+    sweeps.dispose();
+    if (summaries != null) {
+      summaries.dispose();
+      summarize();
+    }
+  }
+}
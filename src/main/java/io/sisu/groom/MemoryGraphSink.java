@@ -0,0 +1,407 @@
+package io.sisu.groom;
+
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.util.BulkQuery;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Keeps the graph in memory instead of a database, for load-testing and profiling groom on its own.
+ *
+ * <p>It applies the very statements compiled for Neo4j, stage by stage (see {@link Cypher.Stage}),
+ * to plain objects holding the same nodes, properties and relationships, so the only thing missing
+ * from a run against it is the database's own work. Every node is indexed the way the schema
+ * indexes it and every relationship is a reference, which makes the graph cheap enough to build
+ * that it shouldn't be what's being measured.
+ *
+ * <p>Like the Cypher it stands in for, a row whose MATCH finds nothing is skipped. A CREATE of a
+ * node that already exists replaces it in the index and is counted in {@link #duplicates()}, as it
+ * would mean groom asked Neo4j for a duplicate.
+ *
+ * <p>Sessions are written under their own lock, taken once per run of a session's rows in a
+ * query, so lanes never contend with each other. Like the driver's, the work runs off the calling
+ * thread, on Reactor's parallel scheduler, so a lane's drainer keeps filling its next batch while
+ * the last one is written.
+ */
+public class MemoryGraphSink implements EventSink {
+
+  static final class Frame {
+    final int tic;
+    Integer millis;
+    Frame prevFrame;
+
+    private Frame(int tic) {
+      this.tic = tic;
+    }
+  }
+
+  static final class SubSector {
+    final long id;
+
+    private SubSector(long id) {
+      this.id = id;
+    }
+  }
+
+  static final class Actor {
+    final long id;
+    final boolean player;
+    final String type;
+    State initialState;
+    State currentState;
+
+    private Actor(long id, boolean player, String type) {
+      this.id = id;
+      this.player = player;
+      this.type = type;
+    }
+  }
+
+  static final class Event {
+    final int counter;
+    final String type;
+    List<Integer> foldedCounters;
+    Frame occurredAt;
+    Event prevEvent;
+
+    private Event(int counter, String type) {
+      this.counter = counter;
+      this.type = type;
+    }
+  }
+
+  static final class State {
+    final long actorId;
+    final int counter;
+    final boolean player;
+    Integer health;
+    Integer armor;
+    Integer x;
+    Integer y;
+    Integer z;
+    Long angle;
+    Event actorIn;
+    Event targetIn;
+    SubSector subsector;
+    State prevState;
+
+    private State(long actorId, int counter, boolean player) {
+      this.actorId = actorId;
+      this.counter = counter;
+      this.player = player;
+    }
+  }
+
+  /** One session's part of the graph. Guarded by its own monitor. */
+  static final class Graph {
+    final Map<Integer, Frame> frames = new HashMap<>();
+    final Map<Integer, Event> events = new HashMap<>();
+    final Map<Long, Actor> actors = new HashMap<>();
+    final Map<Long, SubSector> subsectors = new HashMap<>();
+    final Map<Long, Map<Integer, State>> states = new HashMap<>();
+
+    private State state(long actorId, int counter) {
+      Map<Integer, State> actorStates = states.get(actorId);
+      return actorStates == null ? null : actorStates.get(counter);
+    }
+  }
+
+  private final Map<String, Graph> graphs = new ConcurrentHashMap<>();
+  private final LongAdder nodes = new LongAdder();
+  private final LongAdder relationships = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+
+  /** @return a session's graph, or null if nothing has been written to it */
+  Graph graph(String session) {
+    return graphs.get(session);
+  }
+
+  /** @return nodes created, duplicates included */
+  public long nodes() {
+    return nodes.sum();
+  }
+
+  /** @return relationships in the graph */
+  public long relationships() {
+    return relationships.sum();
+  }
+
+  /** @return nodes created over the top of one that already existed */
+  public long duplicates() {
+    return duplicates.sum();
+  }
+
+  @Override
+  public Mono<Void> resume(SessionState session) {
+    return Mono.fromRunnable(
+        () -> {
+          final Chains chains = session.getChains();
+          if (chains.isResumed()) {
+            return;
+          }
+          final Graph graph = graphs.computeIfAbsent(session.getName(), name -> new Graph());
+          synchronized (graph) {
+            int tic = Chains.NONE;
+            for (int frame : graph.frames.keySet()) {
+              tic = Math.max(tic, frame);
+            }
+            int counter = Chains.NONE;
+            for (int event : graph.events.keySet()) {
+              counter = Math.max(counter, event);
+            }
+            Map<Long, Integer> tails = new HashMap<>();
+            graph.states.forEach(
+                (actorId, actorStates) -> {
+                  int tail = Chains.NONE;
+                  for (int state : actorStates.keySet()) {
+                    tail = Math.max(tail, state);
+                  }
+                  tails.put(actorId, tail);
+                });
+            chains.resume(tic, counter, tails);
+          }
+        })
+        .subscribeOn(Schedulers.parallel())
+        .then();
+  }
+
+  @Override
+  public Mono<Integer> write(int lane, BulkQuery bulkQuery) {
+    return Mono.fromCallable(
+        () -> {
+          for (Query query : bulkQuery.queries) {
+            final Cypher.Stage stage = Cypher.Stage.of(query);
+            if (stage == null) {
+              throw new IllegalArgumentException("not a bulk insert stage: " + query.text());
+            }
+            final Value params = query.parameters();
+            final Value sessions = params.get("session");
+            final int rows = sessions.size();
+            int i = 0;
+            while (i < rows) {
+              // Rows are grouped by session, so this is usually one lock per query.
+              final String session = sessions.get(i).asString();
+              int end = i + 1;
+              while (end < rows && session.equals(sessions.get(end).asString())) {
+                end++;
+              }
+              final Graph graph = graphs.computeIfAbsent(session, name -> new Graph());
+              synchronized (graph) {
+                for (; i < end; i++) {
+                  apply(stage, params, graph, i);
+                }
+              }
+            }
+          }
+          return bulkQuery.size;
+        })
+        .subscribeOn(Schedulers.parallel());
+  }
+
+  /** Apply one row of a stage, with the lock on the row's session graph held. */
+  private void apply(Cypher.Stage stage, Value params, Graph graph, int i) {
+    switch (stage) {
+      case NEW_FRAMES:
+      case SEEN_FRAMES:
+        {
+          final int tic = integer(params, "tic", i);
+          Frame frame = graph.frames.get(tic);
+          if (frame != null && stage == Cypher.Stage.SEEN_FRAMES) {
+            break;
+          }
+          frame = new Frame(tic);
+          frame.millis = integer(params, "millis", i);
+          created(graph.frames.put(tic, frame));
+          break;
+        }
+      case NEW_SUBSECTORS:
+      case SEEN_SUBSECTORS:
+        {
+          final long id = params.get("id").get(i).asLong();
+          if (graph.subsectors.containsKey(id) && stage == Cypher.Stage.SEEN_SUBSECTORS) {
+            break;
+          }
+          created(graph.subsectors.put(id, new SubSector(id)));
+          break;
+        }
+      case NEW_PLAYERS:
+      case NEW_ENEMIES:
+        {
+          final long id = actorId(params, i);
+          final Actor actor =
+              new Actor(
+                  id, stage == Cypher.Stage.NEW_PLAYERS, params.get("type").get(i).asString());
+          created(graph.actors.put(id, actor));
+          break;
+        }
+      case EVENTS:
+        {
+          final int counter = integer(params, "counter", i);
+          final Event event = new Event(counter, params.get("type").get(i).asString());
+          final Value folded = params.get("foldedCounters").get(i);
+          event.foldedCounters = folded.isNull() ? null : folded.asList(Value::asInt);
+          created(graph.events.put(counter, event));
+          break;
+        }
+      case PLAYER_STATES:
+      case ENEMY_STATES:
+        {
+          final long id = actorId(params, i);
+          final int counter = integer(params, "counter", i);
+          final State state = new State(id, counter, stage == Cypher.Stage.PLAYER_STATES);
+          state.health = optionalInteger(params, "health", i);
+          state.armor = optionalInteger(params, "armor", i);
+          state.x = optionalInteger(params, "x", i);
+          state.y = optionalInteger(params, "y", i);
+          state.z = optionalInteger(params, "z", i);
+          final Value angle = params.get("angle").get(i);
+          state.angle = angle.isNull() ? null : angle.asLong();
+          created(
+              graph.states.computeIfAbsent(id, actorId -> new HashMap<>()).put(counter, state));
+          break;
+        }
+      case OCCURRED_AT:
+        {
+          final Event event = graph.events.get(integer(params, "counter", i));
+          final Frame frame = graph.frames.get(integer(params, "tic", i));
+          if (event != null && frame != null) {
+            event.occurredAt = frame;
+            relationships.increment();
+          }
+          break;
+        }
+      case ACTOR_IN:
+      case TARGET_IN:
+        {
+          final State state = state(graph, params, i);
+          final Event event = graph.events.get(integer(params, "counter", i));
+          if (state != null && event != null) {
+            if (stage == Cypher.Stage.ACTOR_IN) {
+              state.actorIn = event;
+            } else {
+              state.targetIn = event;
+            }
+            relationships.increment();
+          }
+          break;
+        }
+      case IN_SUBSECTOR:
+        {
+          final State state = state(graph, params, i);
+          final SubSector subsector = graph.subsectors.get(params.get("subsector").get(i).asLong());
+          if (state != null && subsector != null) {
+            state.subsector = subsector;
+            relationships.increment();
+          }
+          break;
+        }
+      case INITIAL_STATE:
+        {
+          final State state = state(graph, params, i);
+          final Actor actor = graph.actors.get(actorId(params, i));
+          if (state != null && actor != null) {
+            actor.initialState = state;
+            relationships.increment();
+          }
+          break;
+        }
+      case PREV_FRAME:
+        {
+          final Frame frame = graph.frames.get(integer(params, "tic", i));
+          final Frame prevFrame = graph.frames.get(integer(params, "prevTic", i));
+          // Merged, as frames can be revisited across batches.
+          if (frame != null && prevFrame != null && frame.prevFrame == null) {
+            frame.prevFrame = prevFrame;
+            relationships.increment();
+          }
+          break;
+        }
+      case PREV_EVENT:
+        {
+          final Event event = graph.events.get(integer(params, "counter", i));
+          final Event prevEvent = graph.events.get(integer(params, "prevCounter", i));
+          if (event != null && prevEvent != null) {
+            event.prevEvent = prevEvent;
+            relationships.increment();
+          }
+          break;
+        }
+      case PREV_STATE:
+        {
+          final State state = state(graph, params, i);
+          final State prevState = graph.state(actorId(params, i), integer(params, "prevState", i));
+          if (state != null && prevState != null) {
+            state.prevState = prevState;
+            relationships.increment();
+          }
+          break;
+        }
+      default:
+        throw new IllegalArgumentException("unhandled stage " + stage);
+    }
+  }
+
+  @Override
+  public Mono<Void> moveCurrentStates(Query query) {
+    return Mono.fromRunnable(
+        () -> {
+          final Graph graph = graphs.get(query.parameters().get("session").asString());
+          if (graph == null) {
+            return;
+          }
+          synchronized (graph) {
+            for (Value touched : query.parameters().get(Cypher.CURRENT_STATE_PARAM).values()) {
+              final long id = Long.parseLong(touched.get("id").asString());
+              final Actor actor = graph.actors.get(id);
+              final State state = graph.state(id, touched.get("counter").asInt());
+              if (actor != null && state != null) {
+                // Replaces the old relationship, so only an actor's first adds one.
+                if (actor.currentState == null) {
+                  relationships.increment();
+                }
+                actor.currentState = state;
+              }
+            }
+          }
+        })
+        .subscribeOn(Schedulers.parallel())
+        .then();
+  }
+
+  private void created(Object replaced) {
+    nodes.increment();
+    if (replaced != null) {
+      duplicates.increment();
+    }
+  }
+
+  private static State state(Graph graph, Value params, int i) {
+    return graph.state(actorId(params, i), integer(params, "counter", i));
+  }
+
+  /** Actor ids are written as strings. */
+  private static long actorId(Value params, int i) {
+    return Long.parseLong(params.get("id").get(i).asString());
+  }
+
+  private static int integer(Value params, String column, int i) {
+    return params.get(column).get(i).asInt();
+  }
+
+  private static Integer optionalInteger(Value params, String column, int i) {
+    final Value value = params.get(column).get(i);
+    return value.isNull() ? null : value.asInt();
+  }
+
+  /** Nothing to release; the graph is left for whoever still holds the sink. */
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,75 @@
+package io.sisu.groom;
+
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.util.BulkQuery;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.reactive.RxSession;
+import reactor.core.publisher.Mono;
+
+/**
+ * Stores events in Neo4j, with a long-lived {@link BatchWriter} per writer lane and separate
+ * sessions for CURRENT_STATE maintenance, kept around for reuse since sessions are moved
+ * concurrently.
+ */
+public class Neo4jSink implements EventSink {
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(15);
+
+  private final Database db;
+  private final BatchWriter[] writers;
+  private final Queue<RxSession> stateSessions = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Connect to the configured database, making sure it's ready for groom.
+   *
+   * @param config configuration
+   */
+  public Neo4jSink(Config config) {
+    db = new Database(config, config.username, config.password);
+    db.connect();
+    writers = new BatchWriter[config.writers];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new BatchWriter(db);
+    }
+  }
+
+  @Override
+  public Mono<Void> resume(SessionState session) {
+    return db.resume(session);
+  }
+
+  @Override
+  public Mono<Integer> write(int lane, BulkQuery bulkQuery) {
+    return writers[lane].write(bulkQuery);
+  }
+
+  @Override
+  public Mono<Void> moveCurrentStates(Query query) {
+    return Mono.usingWhen(
+        Mono.fromSupplier(
+            () -> {
+              final RxSession idle = stateSessions.poll();
+              return idle == null ? db.session() : idle;
+            }),
+        session -> db.write(session, Collections.singletonList(query)),
+        session -> Mono.fromRunnable(() -> stateSessions.offer(session)),
+        (session, e) -> session.close(),
+        RxSession::close);
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (BatchWriter writer : writers) {
+      writer.close();
+    }
+    RxSession session;
+    while ((session = stateSessions.poll()) != null) {
+      Mono.from(session.close()).onErrorResume(e -> Mono.empty()).block(CLOSE_TIMEOUT);
+    }
+    db.close();
+  }
+}
@@ -0,0 +1,301 @@
+package io.sisu.groom;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.events.SpoolPosition;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-ahead log of raw datagrams, kept in rolling memory-mapped segment files.
+ *
+ * <p>The spool is split into {@link Stream}s, one per listener, each in its own subdirectory with
+ * its own segments and checkpoint. A stream only ever has the one listener appending to it, so
+ * listeners never wait on each other, and since a listener hands its datagrams' events off in the
+ * order it spooled them, a stream's positions reach the writers in order too (see {@link
+ * SpoolPosition}).
+ *
+ * <p>Every datagram is appended before it is decoded and is identified by its spool position: its
+ * stream and the offset just past its record within that stream's segments. Once the events of a
+ * datagram have been stored its position is {@link #commit(long[]) committed} to the stream's
+ * checkpoint file, and on startup everything after each checkpoint is {@link
+ * #replay(ObjLongConsumer) replayed} through the same pipeline. UDP can't be re-requested, so this
+ * is what keeps data from being lost while the database is down or restarting.
+ *
+ * <p>Each record is a 4-byte length followed by the datagram. The length is written last, so a
+ * record torn by a crash reads as the end of the segment. Appends only touch the page cache,
+ * which survives the process dying; checkpoints are forced to disk on every commit.
+ */
+public class Spool implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(Spool.class);
+
+  private static final String STREAM_PREFIX = "stream-";
+  private static final String SEGMENT_PREFIX = "spool-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String CHECKPOINT = "checkpoint";
+
+  private final Stream[] streams;
+
+  /**
+   * Open (or create) a spool directory with at least the given number of streams, plus any more
+   * left behind by an earlier run so that they're replayed too.
+   *
+   * @param dir directory holding a subdirectory per stream
+   * @param segmentSize size of each segment file in bytes
+   * @param streams number of streams to append to, at most {@link SpoolPosition#MAX_STREAMS}
+   * @throws IOException if the directories or files can't be created or mapped
+   */
+  public Spool(Path dir, int segmentSize, int streams) throws IOException {
+    Files.createDirectories(dir);
+    int count = streams;
+    try (DirectoryStream<Path> existing = Files.newDirectoryStream(dir, STREAM_PREFIX + "*")) {
+      for (Path stream : existing) {
+        count =
+            Math.max(
+                count,
+                Integer.parseInt(stream.getFileName().toString().substring(STREAM_PREFIX.length()))
+                    + 1);
+      }
+    }
+    if (count > SpoolPosition.MAX_STREAMS) {
+      throw new IOException("a spool can have at most " + SpoolPosition.MAX_STREAMS + " streams");
+    }
+
+    this.streams = new Stream[count];
+    for (int i = 0; i < count; i++) {
+      this.streams[i] =
+          new Stream(i, dir.resolve(String.format("%s%02d", STREAM_PREFIX, i)), segmentSize);
+    }
+  }
+
+  /**
+   * @param index stream index, one per listener
+   * @return the stream, to be appended to by a single thread
+   */
+  public Stream stream(int index) {
+    return streams[index];
+  }
+
+  /**
+   * Commit each stream up to and including the given position, see {@link Stream#commit(long)}.
+   *
+   * @param positions a spool position (or 0) per stream, indexed by stream
+   */
+  public void commit(long[] positions) {
+    for (int i = 0; i < streams.length && i < positions.length; i++) {
+      if (positions[i] != 0) {
+        streams[i].commit(positions[i]);
+      }
+    }
+  }
+
+  /**
+   * Replay every datagram after each stream's checkpoint, stream by stream and oldest first within
+   * each. The buffers handed to the consumer wrap the mapped segments and are only valid for the
+   * duration of the call.
+   *
+   * @param consumer receives each datagram and its spool position
+   * @return the number of datagrams replayed
+   * @throws IOException if a segment can't be read
+   */
+  public long replay(ObjLongConsumer<ByteBuf> consumer) throws IOException {
+    long replayed = 0;
+    for (Stream stream : streams) {
+      replayed += stream.replay(consumer);
+    }
+    return replayed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Stream stream : streams) {
+      stream.close();
+    }
+  }
+
+  /** One listener's segments and checkpoint. */
+  public static class Stream implements Closeable {
+    private final int id;
+    private final Path dir;
+    private final int segmentSize;
+
+    private final FileChannel checkpointChannel;
+    private final MappedByteBuffer checkpoint;
+    private volatile long committed;
+
+    // Only ever moved by the appending thread, but read by commits.
+    private volatile long segmentIndex;
+    private MappedByteBuffer segment;
+
+    /**
+     * Open (or create) a stream directory. Appends always start in a fresh segment after any that
+     * already exist, leaving those to be replayed.
+     */
+    private Stream(int id, Path dir, int segmentSize) throws IOException {
+      this.id = id;
+      this.dir = Files.createDirectories(dir);
+      this.segmentSize = segmentSize;
+
+      checkpointChannel =
+          FileChannel.open(
+              dir.resolve(CHECKPOINT),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      checkpoint = checkpointChannel.map(MapMode.READ_WRITE, 0, Long.BYTES);
+      committed = checkpoint.getLong(0);
+
+      List<Long> existing = segments();
+      segmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+      segment = map(segmentIndex, MapMode.READ_WRITE);
+    }
+
+    private Path segmentPath(long index) {
+      return dir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> segments() throws IOException {
+      List<Long> indices = new ArrayList<>();
+      try (DirectoryStream<Path> files =
+          Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+        for (Path file : files) {
+          String name = file.getFileName().toString();
+          indices.add(
+              Long.parseLong(
+                  name.substring(
+                      SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+        }
+      }
+      Collections.sort(indices);
+      return indices;
+    }
+
+    private MappedByteBuffer map(long index, MapMode mode) throws IOException {
+      try (FileChannel channel =
+          mode == MapMode.READ_ONLY
+              ? FileChannel.open(segmentPath(index), StandardOpenOption.READ)
+              : FileChannel.open(
+                  segmentPath(index),
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.READ,
+                  StandardOpenOption.WRITE)) {
+        return channel.map(mode, 0, mode == MapMode.READ_ONLY ? channel.size() : segmentSize);
+      }
+    }
+
+    /**
+     * Append a datagram, rolling over to a new segment if it doesn't fit in the current one. The
+     * buffer's reader index is left untouched. Not thread safe: only the stream's own listener
+     * appends to it.
+     *
+     * @param datagram raw datagram
+     * @return the datagram's spool position, or 0 if it couldn't be spooled
+     */
+    public long append(ByteBuf datagram) {
+      final int length = datagram.readableBytes();
+      if (length == 0 || length + 2 * Integer.BYTES > segmentSize) {
+        return 0;
+      }
+      try {
+        // Always leave room for a zero length marking the end of the segment.
+        if (segment.position() + length + 2 * Integer.BYTES > segmentSize) {
+          segment = map(segmentIndex + 1, MapMode.READ_WRITE);
+          segmentIndex++;
+        }
+      } catch (IOException e) {
+        logger.error("failed to roll spool segment: {}", e.getMessage());
+        return 0;
+      }
+
+      final int offset = segment.position();
+      ByteBuffer record = segment.duplicate();
+      record.position(offset + Integer.BYTES).limit(offset + Integer.BYTES + length);
+      datagram.getBytes(datagram.readerIndex(), record);
+      segment.putInt(offset, length);
+      segment.position(offset + Integer.BYTES + length);
+      return SpoolPosition.of(id, segmentIndex * segmentSize + segment.position());
+    }
+
+    /**
+     * Mark everything up to and including the datagram at the given position as safely stored,
+     * deleting segments that are no longer needed.
+     *
+     * @param position spool position in this stream, returned by {@link #append(ByteBuf)} or
+     *     passed to a replay
+     */
+    public synchronized void commit(long position) {
+      final long offset = SpoolPosition.offset(position);
+      if (offset <= committed) {
+        return;
+      }
+      committed = offset;
+      checkpoint.putLong(0, offset);
+      checkpoint.force();
+
+      try {
+        final long current = segmentIndex;
+        for (long index : segments()) {
+          if (index < current && (index + 1) * segmentSize <= offset) {
+            Files.deleteIfExists(segmentPath(index));
+          }
+        }
+      } catch (IOException e) {
+        logger.warn("failed to clean up spool segments: {}", e.getMessage());
+      }
+    }
+
+    /** @return the last committed spool position, or 0 if nothing has been */
+    public long committed() {
+      return committed == 0 ? 0 : SpoolPosition.of(id, committed);
+    }
+
+    private long replay(ObjLongConsumer<ByteBuf> consumer) throws IOException {
+      long replayed = 0;
+
+      for (long index : segments()) {
+        if (index >= segmentIndex || (index + 1) * segmentSize <= committed) {
+          continue;
+        }
+        MappedByteBuffer mapped = map(index, MapMode.READ_ONLY);
+        final long base = index * segmentSize;
+        int offset = 0;
+
+        while (offset + Integer.BYTES <= mapped.limit()) {
+          int length = mapped.getInt(offset);
+          if (length <= 0 || offset + Integer.BYTES + length > mapped.limit()) {
+            break;
+          }
+          long position = base + offset + Integer.BYTES + length;
+          if (position > committed) {
+            ByteBuffer datagram = mapped.duplicate();
+            datagram.position(offset + Integer.BYTES).limit(offset + Integer.BYTES + length);
+            consumer.accept(Unpooled.wrappedBuffer(datagram), SpoolPosition.of(id, position));
+            replayed++;
+          }
+          offset += Integer.BYTES + length;
+        }
+      }
+      return replayed;
+    }
+
+    @Override
+    public void close() throws IOException {
+      segment.force();
+      checkpointChannel.close();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Latency of each stage events pass through on their way to the sink, published as one {@code
+ * stage_latency} timer tagged by stage, with percentiles, so they can be compared side by side.
+ * Stages within a writer lane are also tagged by lane; the others by a lane of {@code none}.
+ *
+ * <ul>
+ *   <li>{@link #DECODE}: a datagram being received until all of its events are decoded.
+ *   <li>{@link #BATCH}: a batch's oldest event being received until the batch is handed to its
+ *       writer, so time spent queued, reordered and waiting for the batch to fill.
+ *   <li>{@link #WAIT}: a batch being handed over until its writer starts on it.
+ *   <li>{@link #COMPILE}: compiling a batch into statements.
+ *   <li>{@link #WRITE}: writing a batch to the sink, retries included.
+ *   <li>{@link #STATE}: a CURRENT_STATE maintenance pass.
+ * </ul>
+ *
+ * <p>{@code event_age} then times a batch's oldest event from being received to being stored.
+ */
+public final class Stages {
+  public static final String DECODE = "decode";
+  public static final String BATCH = "batch";
+  public static final String WAIT = "wait";
+  public static final String COMPILE = "compile";
+  public static final String WRITE = "write";
+  public static final String STATE = "state";
+
+  /** Lane tag of the stages that happen before or beside the writer lanes. */
+  static final String NO_LANE = "none";
+
+  private Stages() {}
+
+  /**
+   * @param stage one of the stages above, outside of any writer lane
+   * @return the stage's timer
+   */
+  public static Timer timer(String stage) {
+    return timer(stage, NO_LANE);
+  }
+
+  /**
+   * @param stage one of the stages above
+   * @param lane the writer lane
+   * @return the stage's timer for the lane
+   */
+  public static Timer timer(String stage, int lane) {
+    return timer(stage, String.valueOf(lane));
+  }
+
+  // Every stage carries the same tag keys, as some registries (e.g. Prometheus) require it.
+  private static Timer timer(String stage, String lane) {
+    return histogram("stage_latency", Tags.of("lane", lane, "stage", stage));
+  }
+
+  /**
+   * @param lane the writer lane
+   * @return the timer of how old the lane's events are once stored
+   */
+  public static Timer eventAge(int lane) {
+    return histogram("event_age", Tags.of("lane", String.valueOf(lane)));
+  }
+
+  private static Timer histogram(String name, Tags tags) {
+    return Timer.builder(name)
+        .tags(tags)
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .publishPercentileHistogram()
+        .register(Metrics.globalRegistry);
+  }
+}
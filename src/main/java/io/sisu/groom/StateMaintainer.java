@@ -0,0 +1,160 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.neo4j.driver.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Moves CURRENT_STATE for recently touched actors on its own thread, apart from the inserts, so
+ * they never wait on it.
+ *
+ * <p>A pass runs once the interval has elapsed since the previous one, or sooner if the number of
+ * actors waiting reaches the backlog threshold. Passes never overlap, but within a pass each
+ * session's actors are moved in their own transaction, with up to {@code parallelism} sessions
+ * being moved at once. Every pass (even one with nothing to write) reports the watermark read at
+ * its start once it has finished, which is how the spool learns what is safe to commit.
+ */
+public class StateMaintainer implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(StateMaintainer.class);
+
+  private static final Duration POLL = Duration.ofMillis(100);
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(15);
+
+  private final EventSink sink;
+  private final CurrentStates currentStates;
+  private final long intervalNanos;
+  private final int backlog;
+  private final int parallelism;
+  private final Supplier<long[]> watermark;
+  private final Consumer<long[]> onPass;
+
+  private final Scheduler scheduler = Schedulers.newSingle("groom-state");
+  private final Timer passes;
+  private final Counter actors;
+  private final Counter sessions;
+
+  private volatile long lastPass = System.nanoTime();
+  private volatile boolean closing = false;
+  private Mono<Void> finished = Mono.empty();
+
+  /**
+   * @param sink where to move the states
+   * @param currentStates actors waiting for their CURRENT_STATE to move
+   * @param interval longest time between passes
+   * @param backlog number of waiting actors that triggers a pass early
+   * @param parallelism most sessions moved at once
+   * @param watermark read at the start of each pass, one spool position per stream
+   * @param onPass given the pass's watermark once the pass has been written
+   */
+  public StateMaintainer(
+      EventSink sink,
+      CurrentStates currentStates,
+      Duration interval,
+      int backlog,
+      int parallelism,
+      Supplier<long[]> watermark,
+      Consumer<long[]> onPass) {
+    this.sink = sink;
+    this.currentStates = currentStates;
+    this.intervalNanos = interval.toNanos();
+    this.backlog = backlog;
+    this.parallelism = parallelism;
+    this.watermark = watermark;
+    this.onPass = onPass;
+
+    passes = Stages.timer(Stages.STATE);
+    actors = Metrics.counter("state_maintenance_actors");
+    sessions = Metrics.counter("state_maintenance_sessions");
+    Metrics.gauge("state_maintenance_backlog", currentStates, CurrentStates::size);
+  }
+
+  /** Start running passes in the background. */
+  public void start() {
+    finished =
+        Flux.interval(POLL, POLL, scheduler)
+            .takeWhile(tick -> !closing)
+            .filter(tick -> due())
+            // A slow pass already covers everything that piled up while it ran.
+            .onBackpressureDrop()
+            .concatMap(tick -> pass(), 1)
+            // One last pass for whatever was stored before closing.
+            .thenMany(Mono.defer(this::pass))
+            .doOnError(e -> logger.error("state maintenance failed: {}", e.getMessage()))
+            .then()
+            .cache();
+    finished.subscribe(ignored -> {}, e -> {});
+  }
+
+  private boolean due() {
+    return currentStates.size() >= backlog || System.nanoTime() - lastPass >= intervalNanos;
+  }
+
+  private Mono<Void> pass() {
+    return Mono.defer(
+        () -> {
+          final long[] mark = watermark.get();
+          final long start = System.nanoTime();
+          final List<Query> queries = currentStates.drain();
+          if (queries.isEmpty()) {
+            return Mono.<Void>empty().doOnSuccess(ignored -> passed(mark));
+          }
+          return Flux.fromIterable(queries)
+              .flatMap(
+                  query ->
+                      GroomApplication.retrying(sink.moveCurrentStates(query))
+                          .doOnSuccess(
+                              ignored ->
+                                  actors.increment(
+                                      query.parameters().get(Cypher.CURRENT_STATE_PARAM).size()))
+                          // Leave the session's CURRENT_STATE where it was rather than stop,
+                          // and have the next pass try its actors again.
+                          .onErrorResume(
+                              e -> {
+                                logger.error(
+                                    "failed to move CURRENT_STATE for session {}: {}",
+                                    query.parameters().get("session").asString(),
+                                    e.getMessage());
+                                currentStates.failed(query);
+                                return Mono.empty();
+                              }),
+                  parallelism)
+              .then()
+              .doOnSuccess(
+                  ignored -> {
+                    passes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    sessions.increment(queries.size());
+                    passed(mark);
+                  });
+        });
+  }
+
+  private void passed(long[] mark) {
+    lastPass = System.nanoTime();
+    onPass.accept(mark);
+  }
+
+  /** Run a final pass, waiting a bounded time for it, and release the thread. */
+  @Override
+  public void close() {
+    closing = true;
+    try {
+      finished.block(CLOSE_TIMEOUT);
+    } catch (Exception e) {
+      logger.warn("gave up on the final state maintenance pass: {}", e.getMessage());
+    }
+    scheduler.dispose();
+  }
+}
@@ -0,0 +1,97 @@
+package io.sisu.groom;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.sisu.groom.events.Event;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.netty.Connection;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.udp.UdpServer;
+
+/**
+ * Binds one or more UDP channels to the configured host and port, each handing its datagrams to a
+ * shared handler on its own event loop thread.
+ *
+ * <p>A datagram may carry several newline-delimited JSON events or a batch of binary records (see
+ * {@link io.sisu.groom.events.EventDecoder#decodeDatagram}), which the handler decodes into {@link
+ * Event}s in place.
+ *
+ * <p>Multiple channels share the port via SO_REUSEPORT, which requires the native epoll transport.
+ * The kernel hashes each client's address to a single socket, so every event from a given Doom
+ * client (and therefore a given session) is received and decoded in order by the same listener.
+ */
+public class UdpListener implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(UdpListener.class);
+
+  private final LoopResources loops;
+  private final List<Connection> connections;
+
+  private UdpListener(LoopResources loops, List<Connection> connections) {
+    this.loops = loops;
+    this.connections = connections;
+  }
+
+  /**
+   * Bind {@code config.udpListeners} channels and start receiving.
+   *
+   * @param config groom Config
+   * @param onDatagram handler for each datagram and the index of the listener that received it,
+   *     must be safe to call from multiple threads and must not hold on to the buffer once it
+   *     returns
+   * @return a UdpListener that can be closed to unbind all channels
+   */
+  public static UdpListener bind(Config config, ObjIntConsumer<ByteBuf> onDatagram) {
+    int listeners = config.udpListeners;
+    if (listeners > 1 && !Epoll.isAvailable()) {
+      logger.warn(
+          "SO_REUSEPORT requires native epoll support, falling back to a single udp listener");
+      listeners = 1;
+    }
+
+    LoopResources loops = LoopResources.create("groom-udp", listeners, true);
+    List<Connection> connections = new ArrayList<>(listeners);
+
+    for (int i = 0; i < listeners; i++) {
+      final int index = i;
+      final String name = "listener-" + i;
+      UdpServer server =
+          UdpServer.create()
+              .host(config.udpHost)
+              .port(config.udpPort)
+              .runOn(loops, true)
+              .handle(
+                  (in, out) ->
+                      in.receive()
+                          .name("incoming_datagrams")
+                          .tag("listener", name)
+                          .metrics()
+                          // Handle the datagram buffer in place before Netty releases it
+                          .doOnNext(datagram -> onDatagram.accept(datagram, index))
+                          .doOnComplete(() -> logger.info("udp {} completed", name))
+                          .then())
+              .doOnBound(
+                  connection ->
+                      logger.info(
+                          "{} now listening on {}:{}", name, config.udpHost, config.udpPort));
+      if (listeners > 1) {
+        server = server.option(EpollChannelOption.SO_REUSEPORT, true);
+      }
+      connections.add(server.bindNow(Duration.ofSeconds(15)));
+    }
+
+    return new UdpListener(loops, connections);
+  }
+
+  @Override
+  public void close() {
+    connections.forEach(conn -> conn.disposeNow(Duration.ofSeconds(15)));
+    loops.dispose();
+  }
+}
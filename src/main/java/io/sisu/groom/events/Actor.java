@@ -27,7 +27,8 @@ public class Actor {
   }
 
   private Type type;
-  private String id;
+  // Actor ids are the actor's memory address in the Doom process, so fit in a long.
+  private long id;
   private Optional<Position> position = Optional.empty();
   private int health;
   private int armor;
@@ -50,11 +51,11 @@ public class Actor {
     this.type = type;
   }
 
-  public String getId() {
+  public long getId() {
     return id;
   }
 
-  public void setId(String id) {
+  public void setId(long id) {
     this.id = id;
   }
 
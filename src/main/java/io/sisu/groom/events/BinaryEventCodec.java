@@ -0,0 +1,223 @@
+package io.sisu.groom.events;
+
+import io.netty.buffer.ByteBuf;
+import io.sisu.groom.exceptions.InvalidEventException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Compact, fixed-layout binary encoding of telemetry events.
+ *
+ * <p>A binary datagram starts with {@link #MAGIC}, which can never begin a JSON datagram, followed
+ * by a version byte and the session name. The rest of the datagram is a sequence of records that
+ * all belong to that session. All multi-byte values are big-endian.
+ *
+ * <pre>
+ * datagram := MAGIC:u8 VERSION:u8 sessionLength:u8 session:utf8[sessionLength] record*
+ * record   := type:u8 flags:u8 counter:i32 tic:i32 millis:i32 actor [target] [level]
+ * actor    := type:u8 id:i64 health:i32 armor:i32 x:i32 y:i32 z:i32 angle:u32 subsector:i64
+ * level    := episode:u8 level:u8 difficulty:u8
+ * </pre>
+ *
+ * The target is present if {@link #FLAG_TARGET} is set, with its position only meaningful if
+ * {@link #FLAG_TARGET_POSITION} is also set, and the level is present if {@link #FLAG_LEVEL} is
+ * set. The loosely used event fields (health, card, damage, etc.) aren't persisted and aren't
+ * carried.
+ */
+public class BinaryEventCodec {
+  public static final byte MAGIC = (byte) 0xD0;
+  public static final byte VERSION = 1;
+
+  public static final int FLAG_TARGET = 0x01;
+  public static final int FLAG_LEVEL = 0x02;
+  public static final int FLAG_TARGET_POSITION = 0x04;
+
+  public static final int HEADER_SIZE = 3;
+  public static final int ACTOR_SIZE = 1 + 8 + 4 + 4 + 4 + 4 + 4 + 4 + 8;
+  public static final int LEVEL_SIZE = 3;
+  public static final int RECORD_SIZE = 1 + 1 + 4 + 4 + 4 + ACTOR_SIZE;
+  public static final int MAX_RECORD_SIZE = RECORD_SIZE + ACTOR_SIZE + LEVEL_SIZE;
+
+  private static final Event.Type[] EVENT_TYPES = Event.Type.values();
+  private static final Actor.Type[] ACTOR_TYPES = Actor.Type.values();
+
+  /**
+   * Check whether the readable bytes of a buffer look like a binary datagram.
+   *
+   * @param buf datagram buffer
+   * @return true if the buffer starts with the binary magic byte
+   */
+  public static boolean isBinary(ByteBuf buf) {
+    return buf.isReadable() && buf.getByte(buf.readerIndex()) == MAGIC;
+  }
+
+  /**
+   * Write the datagram header for the given session.
+   *
+   * @param session session name, at most 255 bytes of UTF-8
+   * @param out buffer to append to
+   */
+  public static void encodeHeader(String session, ByteBuf out) {
+    byte[] name = session.getBytes(StandardCharsets.UTF_8);
+    if (name.length > 0xff) {
+      throw new IllegalArgumentException("session name too long for binary encoding");
+    }
+    out.writeByte(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(name.length);
+    out.writeBytes(name);
+  }
+
+  /**
+   * Append a single event record. The event's session is assumed to match the datagram header.
+   *
+   * @param event event to encode
+   * @param out buffer to append to
+   */
+  public static void encodeRecord(Event event, ByteBuf out) {
+    int flags = 0;
+    if (event.getTarget().isPresent()) {
+      flags |= FLAG_TARGET;
+      if (event.getTarget().get().getPosition().isPresent()) {
+        flags |= FLAG_TARGET_POSITION;
+      }
+    }
+    if (event.getLevel().isPresent()) {
+      flags |= FLAG_LEVEL;
+    }
+
+    out.writeByte(event.getType().ordinal());
+    out.writeByte(flags);
+    out.writeInt(event.getCounter());
+    out.writeInt(event.getFrame().getTic());
+    out.writeInt(event.getFrame().getMillis());
+    encodeActor(event.getActor(), out);
+    if (event.getTarget().isPresent()) {
+      encodeActor(event.getTarget().get(), out);
+    }
+    if (event.getLevel().isPresent()) {
+      Level level = event.getLevel().get();
+      out.writeByte(level.getEpisode());
+      out.writeByte(level.getLevel());
+      out.writeByte(level.getDifficulty());
+    }
+  }
+
+  private static void encodeActor(Actor actor, ByteBuf out) {
+    out.writeByte(actor.getType().ordinal());
+    out.writeLong(actor.getId());
+    out.writeInt(actor.getHealth());
+    out.writeInt(actor.getArmor());
+    Position position = actor.getPosition().orElse(null);
+    if (position == null) {
+      out.writeZero(4 + 4 + 4 + 4 + 8);
+    } else {
+      out.writeInt(position.getX());
+      out.writeInt(position.getY());
+      out.writeInt(position.getZ());
+      out.writeInt((int) position.getAngle());
+      out.writeLong(position.getSubsector());
+    }
+  }
+
+  /**
+   * Decode a binary datagram. The buffer's reader index is left untouched.
+   *
+   * <p>Records are fixed-size, so a truncated or corrupt record ends decoding of the datagram
+   * since there's no way to find the start of the next one.
+   *
+   * @param buf binary datagram, starting with {@link #MAGIC}
+   * @param onEvent receives each valid event, in the order they appear
+   * @param onInvalid receives an exception for each record that fails to decode
+   * @return the number of valid events decoded
+   */
+  public static int decodeDatagram(
+      ByteBuf buf, Consumer<Event> onEvent, Consumer<InvalidEventException> onInvalid) {
+    ByteBuf in = buf.duplicate();
+    if (in.readableBytes() < HEADER_SIZE || in.readByte() != MAGIC) {
+      onInvalid.accept(new InvalidEventException("not a binary datagram"));
+      return 0;
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      onInvalid.accept(new InvalidEventException("unsupported binary version " + version));
+      return 0;
+    }
+    int sessionLength = in.readUnsignedByte();
+    if (in.readableBytes() < sessionLength) {
+      onInvalid.accept(new InvalidEventException("truncated binary header"));
+      return 0;
+    }
+    String session = in.readCharSequence(sessionLength, StandardCharsets.UTF_8).toString();
+
+    int decoded = 0;
+    while (in.isReadable()) {
+      try {
+        onEvent.accept(EventDecoder.validate(decodeRecord(session, in)));
+        decoded++;
+      } catch (InvalidEventException e) {
+        onInvalid.accept(e);
+      } catch (RuntimeException e) {
+        onInvalid.accept(new InvalidEventException("Could not decode record: " + e.getMessage()));
+        break;
+      }
+    }
+    return decoded;
+  }
+
+  /**
+   * Read a single record, advancing the reader index past it.
+   *
+   * @param session session the record belongs to
+   * @param in buffer positioned at the start of a record
+   * @return the decoded, unvalidated event
+   */
+  public static Event decodeRecord(String session, ByteBuf in) {
+    if (in.readableBytes() < RECORD_SIZE) {
+      throw new IndexOutOfBoundsException("truncated record");
+    }
+    Event event = new Event();
+    event.setSession(session.isEmpty() ? null : session);
+    event.setType(EVENT_TYPES[in.readUnsignedByte()]);
+    int flags = in.readUnsignedByte();
+    event.setCounter(in.readInt());
+
+    Frame frame = new Frame();
+    frame.setTic(in.readInt());
+    frame.setMillis(in.readInt());
+    event.setFrame(frame);
+
+    event.setActor(decodeActor(in, true));
+    if ((flags & FLAG_TARGET) != 0) {
+      event.setTarget(Optional.of(decodeActor(in, (flags & FLAG_TARGET_POSITION) != 0)));
+    }
+    if ((flags & FLAG_LEVEL) != 0) {
+      Level level = new Level();
+      level.setEpisode(in.readUnsignedByte());
+      level.setLevel(in.readUnsignedByte());
+      level.setDifficulty(in.readUnsignedByte());
+      event.setLevel(Optional.of(level));
+    }
+    return event;
+  }
+
+  private static Actor decodeActor(ByteBuf in, boolean hasPosition) {
+    Actor actor = new Actor();
+    actor.setType(ACTOR_TYPES[in.readUnsignedByte()]);
+    actor.setId(in.readLong());
+    actor.setHealth(in.readInt());
+    actor.setArmor(in.readInt());
+
+    Position position = new Position();
+    position.setX(in.readInt());
+    position.setY(in.readInt());
+    position.setZ(in.readInt());
+    position.setAngle(in.readUnsignedInt());
+    position.setSubsector(in.readLong());
+    if (hasPosition) {
+      actor.setPosition(Optional.of(position));
+    }
+    return actor;
+  }
+}
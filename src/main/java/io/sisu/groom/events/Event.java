@@ -1,6 +1,5 @@
 package io.sisu.groom.events;
 
-import io.sisu.groom.exceptions.InvalidEventException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -8,11 +7,6 @@ import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.MapperFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategy;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-
 public class Event {
 
   public enum Type {
@@ -43,6 +37,11 @@ public class Event {
   private Optional<Actor> target = Optional.empty();
   private Optional<Level> level = Optional.empty();
 
+  // Where the datagram carrying this event sits in the spool, if spooling is enabled.
+  private long spoolPosition;
+  // When the datagram carrying this event was received (System.nanoTime), or 0 if not known.
+  private long receivedNanos;
+
   // Not really doing anything with these yet...
   int health;
   int card;
@@ -52,38 +51,14 @@ public class Event {
   int armorType;
 
   private static final Logger logger = LoggerFactory.getLogger(Event.class);
-  private static final ObjectMapper mapper =
-      new ObjectMapper()
-          .registerModule(new Jdk8Module())
-          .enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
-          .setPropertyNamingStrategy(new PropertyNamingStrategy.SnakeCaseStrategy());
 
+  /**
+   * Parse and validate a single JSON event.
+   *
+   * @see EventDecoder
+   */
   public static Event fromJson(String json) {
-    Event event;
-    try {
-      event = mapper.readValue(json, Event.class);
-      if (event.session == null) {
-        throw new InvalidEventException("event session should not be null!");
-      }
-      if (event.counter == null) {
-        throw new InvalidEventException("event counter should not be null!");
-      }
-      if (event.type == null) {
-        throw new InvalidEventException("event type should not be null!");
-      }
-      if (event.frame == null) {
-        throw new InvalidEventException("frame cannot be null!");
-      }
-      if (event.actor == null) {
-        throw new InvalidEventException("actor cannot be null!");
-      }
-      if (!event.actor.getPosition().isPresent()) {
-        throw new InvalidEventException("actors require a position!");
-      }
-    } catch (Exception e) {
-      throw new InvalidEventException("Could not parse json: " + e.getMessage(), json);
-    }
-    return event;
+    return EventDecoder.decode(json);
   }
 
   public Map<String, Object> toMap() {
@@ -103,6 +78,22 @@ public class Event {
     return String.format("Event[%s@%d]", type, frame.getTic());
   }
 
+  public long getSpoolPosition() {
+    return spoolPosition;
+  }
+
+  public void setSpoolPosition(long spoolPosition) {
+    this.spoolPosition = spoolPosition;
+  }
+
+  public long getReceivedNanos() {
+    return receivedNanos;
+  }
+
+  public void setReceivedNanos(long receivedNanos) {
+    this.receivedNanos = receivedNanos;
+  }
+
   public String getSession() {
     return session;
   }
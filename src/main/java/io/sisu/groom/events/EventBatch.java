@@ -0,0 +1,675 @@
+package io.sisu.groom.events;
+
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A batch of events stored column-wise in primitive arrays instead of as a list of Event object
+ * graphs.
+ *
+ * <p>Events added to a batch are copied into the columns and can be discarded right away, so they
+ * die young instead of being promoted while a batch waits out its flush interval. The columns are
+ * kept when a batch is cleared, and a {@link Pool} hands cleared batches back out, so a steady
+ * stream of batches allocates next to nothing once the arrays have grown to the batch size.
+ *
+ * <p>Actor and subsector ids are also resolved to their dense per-session indices on the way in.
+ *
+ * <p>Iterating a batch rebuilds Event objects and is meant for tests and debugging, not the hot
+ * path.
+ */
+public class EventBatch extends AbstractCollection<Event> {
+  private static final Event.Type[] EVENT_TYPES = Event.Type.values();
+  private static final Actor.Type[] ACTOR_TYPES = Actor.Type.values();
+
+  private static final String[] EVENT_TYPE_NAMES = new String[EVENT_TYPES.length];
+  private static final String[] ACTOR_TYPE_NAMES = new String[ACTOR_TYPES.length];
+  private static final int[] NO_COUNTERS = new int[0];
+
+  static {
+    for (Event.Type type : EVENT_TYPES) {
+      EVENT_TYPE_NAMES[type.ordinal()] = type.toString();
+    }
+    for (Actor.Type type : ACTOR_TYPES) {
+      ACTOR_TYPE_NAMES[type.ordinal()] = type.toString().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /** The columns describing one actor (or target) of each event in the batch. */
+  public static class ActorColumns {
+    private byte[] type;
+    private long[] id;
+    private int[] index;
+    private int[] health;
+    private int[] armor;
+    private boolean[] hasPosition;
+    private int[] x;
+    private int[] y;
+    private int[] z;
+    private long[] angle;
+    private long[] subsector;
+    private int[] subsectorIndex;
+    private int[] prevState;
+
+    private ActorColumns(int capacity) {
+      type = new byte[capacity];
+      id = new long[capacity];
+      index = new int[capacity];
+      health = new int[capacity];
+      armor = new int[capacity];
+      hasPosition = new boolean[capacity];
+      x = new int[capacity];
+      y = new int[capacity];
+      z = new int[capacity];
+      angle = new long[capacity];
+      subsector = new long[capacity];
+      subsectorIndex = new int[capacity];
+      prevState = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+      type = Arrays.copyOf(type, capacity);
+      id = Arrays.copyOf(id, capacity);
+      index = Arrays.copyOf(index, capacity);
+      health = Arrays.copyOf(health, capacity);
+      armor = Arrays.copyOf(armor, capacity);
+      hasPosition = Arrays.copyOf(hasPosition, capacity);
+      x = Arrays.copyOf(x, capacity);
+      y = Arrays.copyOf(y, capacity);
+      z = Arrays.copyOf(z, capacity);
+      angle = Arrays.copyOf(angle, capacity);
+      subsector = Arrays.copyOf(subsector, capacity);
+      subsectorIndex = Arrays.copyOf(subsectorIndex, capacity);
+      prevState = Arrays.copyOf(prevState, capacity);
+    }
+
+    private void set(int row, Actor actor, SessionState state) {
+      type[row] = (byte) actor.getType().ordinal();
+      id[row] = actor.getId();
+      index[row] = state.getActors().index(actor.getId());
+      health[row] = actor.getHealth();
+      armor[row] = actor.getArmor();
+      Position position = actor.getPosition().orElse(null);
+      hasPosition[row] = position != null;
+      if (position != null) {
+        x[row] = position.getX();
+        y[row] = position.getY();
+        z[row] = position.getZ();
+        angle[row] = position.getAngle();
+        subsector[row] = position.getSubsector();
+        subsectorIndex[row] = state.getSubsectors().index(position.getSubsector());
+      } else {
+        subsectorIndex[row] = -1;
+      }
+    }
+
+    private Actor get(int row) {
+      Actor actor = new Actor();
+      actor.setType(ACTOR_TYPES[type[row]]);
+      actor.setId(id[row]);
+      actor.setHealth(health[row]);
+      actor.setArmor(armor[row]);
+      if (hasPosition[row]) {
+        Position position = new Position();
+        position.setX(x[row]);
+        position.setY(y[row]);
+        position.setZ(z[row]);
+        position.setAngle(angle[row]);
+        position.setSubsector(subsector[row]);
+        actor.setPosition(Optional.of(position));
+      }
+      return actor;
+    }
+
+    public String typeName(int row) {
+      return ACTOR_TYPE_NAMES[type[row]];
+    }
+
+    public boolean isPlayer(int row) {
+      return type[row] == Actor.Type.PLAYER.ordinal();
+    }
+
+    public long id(int row) {
+      return id[row];
+    }
+
+    /** @return the actor's dense index within its session, see {@link SessionState#getActors()} */
+    public int index(int row) {
+      return index[row];
+    }
+
+    public int health(int row) {
+      return health[row];
+    }
+
+    public int armor(int row) {
+      return armor[row];
+    }
+
+    public boolean hasPosition(int row) {
+      return hasPosition[row];
+    }
+
+    public int x(int row) {
+      return x[row];
+    }
+
+    public int y(int row) {
+      return y[row];
+    }
+
+    public int z(int row) {
+      return z[row];
+    }
+
+    public long angle(int row) {
+      return angle[row];
+    }
+
+    public long subsector(int row) {
+      return subsector[row];
+    }
+
+    /** @return the subsector's dense index within its session, or -1 without a position */
+    public int subsectorIndex(int row) {
+      return subsectorIndex[row];
+    }
+
+    /**
+     * @return the counter of the event holding the actor's previous state, or one of {@link
+     *     Chains#NONE} or {@link Chains#UNKNOWN}
+     */
+    public int prevState(int row) {
+      return prevState[row];
+    }
+  }
+
+  /** A small free-list of cleared batches so their columns can be reused. */
+  public static class Pool {
+    private final Queue<EventBatch> free = new ConcurrentLinkedQueue<>();
+    private final int capacity;
+    private final Sessions registry;
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    public Pool(int capacity, Sessions registry) {
+      this.capacity = capacity;
+      this.registry = registry;
+    }
+
+    public EventBatch acquire() {
+      inUse.incrementAndGet();
+      EventBatch batch = free.poll();
+      return batch == null ? new EventBatch(capacity, registry) : batch;
+    }
+
+    public void release(EventBatch batch) {
+      batch.clear();
+      free.offer(batch);
+      inUse.decrementAndGet();
+    }
+
+    /** @return the number of batches being filled, waiting for a writer or being compiled */
+    public int inUse() {
+      return inUse.get();
+    }
+  }
+
+  private final Sessions registry;
+  private final List<SessionState> sessions = new ArrayList<>();
+  // First and last counter and tic of each session's rows, in the same order as sessions.
+  private final List<int[]> spans = new ArrayList<>();
+
+  private int size = 0;
+  private int capacity;
+  // Newest and oldest spool position in each stream the batch has events from, see SpoolPosition.
+  private long spoolStreams = 0;
+  private final long[] spoolPositions = new long[SpoolPosition.MAX_STREAMS];
+  private final long[] oldestSpoolPositions = new long[SpoolPosition.MAX_STREAMS];
+  private long receivedNanos = Long.MAX_VALUE;
+  private long handedOffNanos = 0;
+
+  private int[] session;
+  private int[] counter;
+  // Counters of the events folded into each row, as chains through folded and foldedNext.
+  private int[] foldedHead;
+  private int[] foldedTail;
+  private int[] folded = new int[16];
+  private int[] foldedNext = new int[16];
+  private int foldedSize = 0;
+  private byte[] type;
+  private int[] tic;
+  private int[] millis;
+  private int[] prevTic;
+  private int[] prevCounter;
+
+  private final ActorColumns actor;
+  private final ActorColumns target;
+  private boolean[] hasTarget;
+
+  private boolean[] hasLevel;
+  private int[] episode;
+  private int[] level;
+  private int[] difficulty;
+
+  public EventBatch(int capacity) {
+    this(capacity, new Sessions());
+  }
+
+  /**
+   * @param capacity initial number of rows
+   * @param registry registry used to look up per-session id tables
+   */
+  public EventBatch(int capacity, Sessions registry) {
+    this.registry = registry;
+    this.capacity = Math.max(capacity, 16);
+    session = new int[this.capacity];
+    counter = new int[this.capacity];
+    foldedHead = new int[this.capacity];
+    foldedTail = new int[this.capacity];
+    type = new byte[this.capacity];
+    tic = new int[this.capacity];
+    millis = new int[this.capacity];
+    prevTic = new int[this.capacity];
+    prevCounter = new int[this.capacity];
+    actor = new ActorColumns(this.capacity);
+    target = new ActorColumns(this.capacity);
+    hasTarget = new boolean[this.capacity];
+    hasLevel = new boolean[this.capacity];
+    episode = new int[this.capacity];
+    level = new int[this.capacity];
+    difficulty = new int[this.capacity];
+  }
+
+  private void ensureCapacity() {
+    if (size < capacity) {
+      return;
+    }
+    capacity = capacity + (capacity >> 1);
+    session = Arrays.copyOf(session, capacity);
+    counter = Arrays.copyOf(counter, capacity);
+    foldedHead = Arrays.copyOf(foldedHead, capacity);
+    foldedTail = Arrays.copyOf(foldedTail, capacity);
+    type = Arrays.copyOf(type, capacity);
+    tic = Arrays.copyOf(tic, capacity);
+    millis = Arrays.copyOf(millis, capacity);
+    prevTic = Arrays.copyOf(prevTic, capacity);
+    prevCounter = Arrays.copyOf(prevCounter, capacity);
+    actor.grow(capacity);
+    target.grow(capacity);
+    hasTarget = Arrays.copyOf(hasTarget, capacity);
+    hasLevel = Arrays.copyOf(hasLevel, capacity);
+    episode = Arrays.copyOf(episode, capacity);
+    level = Arrays.copyOf(level, capacity);
+    difficulty = Arrays.copyOf(difficulty, capacity);
+  }
+
+  private int sessionIndex(String name) {
+    // Batches rarely hold more than a handful of sessions, so a scan beats hashing.
+    for (int i = 0; i < sessions.size(); i++) {
+      if (sessions.get(i).getName().equals(name)) {
+        return i;
+      }
+    }
+    sessions.add(registry.get(name));
+    spans.add(
+        new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE});
+    return sessions.size() - 1;
+  }
+
+  /**
+   * Append an event to the batch by copying it into the columns.
+   *
+   * @param event a validated Event
+   * @return true
+   */
+  @Override
+  public boolean add(Event event) {
+    ensureCapacity();
+    final int row = size;
+
+    session[row] = sessionIndex(event.getSession());
+    SessionState state = sessions.get(session[row]);
+    counter[row] = event.getCounter();
+    foldedHead[row] = -1;
+    type[row] = (byte) event.getType().ordinal();
+    tic[row] = event.getFrame().getTic();
+    millis[row] = event.getFrame().getMillis();
+    actor.set(row, event.getActor(), state);
+
+    final int[] span = spans.get(session[row]);
+    span[0] = Math.min(span[0], counter[row]);
+    span[1] = Math.max(span[1], counter[row]);
+    span[2] = Math.min(span[2], tic[row]);
+    span[3] = Math.max(span[3], tic[row]);
+
+    hasTarget[row] = event.getTarget().isPresent();
+    event.getTarget().ifPresent(t -> target.set(row, t, state));
+
+    // Link the new nodes to the tails of the session's chains.
+    final Chains chains = state.getChains();
+    prevTic[row] = chains.nextFrame(tic[row]);
+    prevCounter[row] = chains.nextEvent(counter[row]);
+    actor.prevState[row] = chains.nextState(actor.index[row], counter[row]);
+    if (hasTarget[row]) {
+      target.prevState[row] =
+          target.id[row] == actor.id[row]
+              ? Chains.NONE
+              : chains.nextState(target.index[row], counter[row]);
+    }
+
+    Level l = event.getLevel().orElse(null);
+    hasLevel[row] = l != null;
+    if (l != null) {
+      episode[row] = l.getEpisode();
+      level[row] = l.getLevel();
+      difficulty[row] = l.getDifficulty();
+    }
+
+    absorb(event);
+    size++;
+    return true;
+  }
+
+  /**
+   * Account for an event that is represented by this batch, whether or not it took a row.
+   *
+   * @param event event added to or folded into the batch
+   */
+  void absorb(Event event) {
+    final long position = event.getSpoolPosition();
+    if (position != 0) {
+      final int stream = SpoolPosition.stream(position);
+      if ((spoolStreams & 1L << stream) == 0) {
+        spoolStreams |= 1L << stream;
+        spoolPositions[stream] = position;
+        oldestSpoolPositions[stream] = position;
+      } else if (position > spoolPositions[stream]) {
+        spoolPositions[stream] = position;
+      } else if (position < oldestSpoolPositions[stream]) {
+        oldestSpoolPositions[stream] = position;
+      }
+    }
+    if (event.getReceivedNanos() != 0) {
+      receivedNanos = Math.min(receivedNanos, event.getReceivedNanos());
+    }
+  }
+
+  /**
+   * Overwrite the actor of an existing row, as when folding a later move into it.
+   *
+   * @param row row index
+   * @param replacement the actor's newer state
+   */
+  void replaceActor(int row, Actor replacement) {
+    actor.set(row, replacement, sessionState(row));
+  }
+
+  /**
+   * Record that an event was folded into an existing row, which then stands for it too.
+   *
+   * @param row row index
+   * @param counter counter of the event folded into the row
+   */
+  void fold(int row, int counter) {
+    if (foldedSize == folded.length) {
+      folded = Arrays.copyOf(folded, foldedSize << 1);
+      foldedNext = Arrays.copyOf(foldedNext, foldedSize << 1);
+    }
+    final int node = foldedSize++;
+    folded[node] = counter;
+    foldedNext[node] = -1;
+    if (foldedHead[row] == -1) {
+      foldedHead[row] = node;
+    } else {
+      foldedNext[foldedTail[row]] = node;
+    }
+    foldedTail[row] = node;
+
+    final int[] span = spans.get(session[row]);
+    span[1] = Math.max(span[1], counter);
+  }
+
+  /**
+   * Rebuild the Event stored at the given row.
+   *
+   * @param row row index
+   * @return a new Event
+   */
+  public Event get(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("row " + row + " of " + size);
+    }
+    Event event = new Event();
+    event.setSession(session(row));
+    event.setCounter(counter[row]);
+    event.setType(EVENT_TYPES[type[row]]);
+
+    Frame frame = new Frame();
+    frame.setTic(tic[row]);
+    frame.setMillis(millis[row]);
+    event.setFrame(frame);
+
+    event.setActor(actor.get(row));
+    if (hasTarget[row]) {
+      event.setTarget(Optional.of(target.get(row)));
+    }
+    if (hasLevel[row]) {
+      Level l = new Level();
+      l.setEpisode(episode[row]);
+      l.setLevel(level[row]);
+      l.setDifficulty(difficulty[row]);
+      event.setLevel(Optional.of(l));
+    }
+    return event;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Reset the batch to empty, keeping the columns around for reuse. */
+  @Override
+  public void clear() {
+    sessions.clear();
+    spans.clear();
+    for (; spoolStreams != 0; spoolStreams &= spoolStreams - 1) {
+      final int stream = Long.numberOfTrailingZeros(spoolStreams);
+      spoolPositions[stream] = 0;
+      oldestSpoolPositions[stream] = 0;
+    }
+    receivedNanos = Long.MAX_VALUE;
+    handedOffNanos = 0;
+    foldedSize = 0;
+    size = 0;
+  }
+
+  @Override
+  public Iterator<Event> iterator() {
+    return new Iterator<Event>() {
+      private int row = 0;
+
+      @Override
+      public boolean hasNext() {
+        return row < size;
+      }
+
+      @Override
+      public Event next() {
+        if (row >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(row++);
+      }
+    };
+  }
+
+  /** @return a mask with a bit set for each spool stream this batch has events from */
+  public long spoolStreams() {
+    return spoolStreams;
+  }
+
+  /**
+   * @param stream spool stream
+   * @return the position of the newest datagram in this batch from that stream, or 0 if none
+   */
+  public long spoolPosition(int stream) {
+    return spoolPositions[stream];
+  }
+
+  /**
+   * @param stream spool stream
+   * @return the position of the oldest datagram in this batch from that stream, or 0 if none
+   */
+  public long oldestSpoolPosition(int stream) {
+    return oldestSpoolPositions[stream];
+  }
+
+  /** @return a copy of the newest position in each spool stream, indexed by stream, 0 if none */
+  public long[] spoolPositions() {
+    return spoolPositions.clone();
+  }
+
+  /** @return a copy of the oldest position in each spool stream, indexed by stream, 0 if none */
+  public long[] oldestSpoolPositions() {
+    return oldestSpoolPositions.clone();
+  }
+
+  /** @return when the batch's oldest event was received (System.nanoTime), or 0 if not known */
+  public long receivedNanos() {
+    return receivedNanos == Long.MAX_VALUE ? 0 : receivedNanos;
+  }
+
+  /** @return when the batch was handed to its writer (System.nanoTime), or 0 if it hasn't been */
+  public long handedOffNanos() {
+    return handedOffNanos;
+  }
+
+  /** @param nanos when the batch was handed to its writer (System.nanoTime) */
+  public void handedOff(long nanos) {
+    handedOffNanos = nanos;
+  }
+
+  /** @return the distinct sessions present in this batch */
+  public List<SessionState> sessions() {
+    return sessions;
+  }
+
+  /**
+   * @return the counters and tics each session's rows cover, for {@link SessionState#lose} should
+   *     the batch never be stored
+   */
+  public Map<SessionState, Chains.Span> spans() {
+    Map<SessionState, Chains.Span> spans = new HashMap<>(sessions.size() * 2);
+    for (int i = 0; i < sessions.size(); i++) {
+      final int[] span = this.spans.get(i);
+      spans.put(sessions.get(i), new Chains.Span(span[0], span[1], span[2], span[3]));
+    }
+    return spans;
+  }
+
+  public String session(int row) {
+    return sessions.get(session[row]).getName();
+  }
+
+  public SessionState sessionState(int row) {
+    return sessions.get(session[row]);
+  }
+
+  public int counter(int row) {
+    return counter[row];
+  }
+
+  /**
+   * @return the counters of the events folded into this row, in the order they were folded, empty
+   *     unless events were coalesced into it
+   */
+  public int[] foldedCounters(int row) {
+    int count = 0;
+    for (int node = foldedHead[row]; node != -1; node = foldedNext[node]) {
+      count++;
+    }
+    if (count == 0) {
+      return NO_COUNTERS;
+    }
+    final int[] counters = new int[count];
+    count = 0;
+    for (int node = foldedHead[row]; node != -1; node = foldedNext[node]) {
+      counters[count++] = folded[node];
+    }
+    return counters;
+  }
+
+  public Event.Type type(int row) {
+    return EVENT_TYPES[type[row]];
+  }
+
+  public String typeName(int row) {
+    return EVENT_TYPE_NAMES[type[row]];
+  }
+
+  /**
+   * @return the tic of the frame this row's frame follows, or one of {@link Chains#NONE} or {@link
+   *     Chains#UNKNOWN}
+   */
+  public int prevTic(int row) {
+    return prevTic[row];
+  }
+
+  /**
+   * @return the counter of the event this row follows, or {@link Chains#UNKNOWN} if it's the first
+   *     this process has seen in its session
+   */
+  public int prevCounter(int row) {
+    return prevCounter[row];
+  }
+
+  public int tic(int row) {
+    return tic[row];
+  }
+
+  public int millis(int row) {
+    return millis[row];
+  }
+
+  public ActorColumns actor() {
+    return actor;
+  }
+
+  public boolean hasTarget(int row) {
+    return hasTarget[row];
+  }
+
+  public ActorColumns target() {
+    return target;
+  }
+
+  public boolean hasLevel(int row) {
+    return hasLevel[row];
+  }
+
+  public int episode(int row) {
+    return episode[row];
+  }
+
+  public int level(int row) {
+    return level[row];
+  }
+
+  public int difficulty(int row) {
+    return difficulty[row];
+  }
+}
@@ -0,0 +1,415 @@
+package io.sisu.groom.events;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.util.ByteProcessor;
+import io.sisu.groom.exceptions.InvalidEventException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Streaming decoder for Doom telemetry events.
+ *
+ * <p>Walks the JSON tokens directly into the {@link Event} object graph instead of going through
+ * an ObjectMapper, so a datagram can be decoded straight from the Netty {@link ByteBuf} it arrived
+ * in without first being copied into a String. Field names are the snake_case names emitted by the
+ * Chocolate-Doom telemetry and enum values are matched case-insensitively.
+ */
+public class EventDecoder {
+  private static final JsonFactory factory = new JsonFactory();
+
+  private static final Event.Type[] EVENT_TYPES = Event.Type.values();
+  private static final Actor.Type[] ACTOR_TYPES = Actor.Type.values();
+
+  /**
+   * Decode a single event from the readable bytes of the given buffer. The buffer's reader index
+   * is left untouched and the buffer is not released.
+   *
+   * @param buf buffer holding exactly one JSON event
+   * @return a validated Event
+   * @throws InvalidEventException if the json can't be parsed or fails validation
+   */
+  public static Event decode(ByteBuf buf) {
+    return decode(buf, null);
+  }
+
+  /**
+   * Decode a single event, filling in the session for events that don't carry one (like those in
+   * telemetry logs recorded before sessions existed).
+   *
+   * @param buf buffer holding exactly one JSON event
+   * @param defaultSession session to use if the event has none, may be null
+   * @return a validated Event
+   * @throws InvalidEventException if the json can't be parsed or fails validation
+   */
+  public static Event decode(ByteBuf buf, String defaultSession) {
+    try (JsonParser parser = createParser(buf)) {
+      Event event = parse(parser);
+      if (event.getSession() == null) {
+        event.setSession(defaultSession);
+      }
+      return validate(event);
+    } catch (Exception e) {
+      // Only pay for the String copy when we need to report a bad event.
+      throw new InvalidEventException(
+          "Could not parse json: " + e.getMessage(),
+          buf.toString(buf.readerIndex(), buf.readableBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Decode a datagram in whichever wire format it was sent: a {@link BinaryEventCodec} datagram if
+   * it starts with the binary magic byte, otherwise newline-delimited JSON.
+   *
+   * @param buf datagram buffer
+   * @param onEvent receives each valid event, in the order they appear
+   * @param onInvalid receives an exception for each event that fails to decode
+   * @return the number of valid events decoded
+   */
+  public static int decodeDatagram(
+      ByteBuf buf, Consumer<Event> onEvent, Consumer<InvalidEventException> onInvalid) {
+    if (BinaryEventCodec.isBinary(buf)) {
+      return BinaryEventCodec.decodeDatagram(buf, onEvent, onInvalid);
+    }
+    return decodeLines(buf, onEvent, onInvalid);
+  }
+
+  /**
+   * Decode a datagram carrying one or more newline-delimited events (the same format as a
+   * recorded telemetry log). Each line is decoded from a slice of the original buffer, so nothing
+   * is copied, and a bad line is reported without affecting the others.
+   *
+   * @param buf buffer holding newline-delimited JSON events
+   * @param onEvent receives each valid event, in the order they appear
+   * @param onInvalid receives an exception for each line that fails to decode
+   * @return the number of valid events decoded
+   */
+  public static int decodeLines(
+      ByteBuf buf, Consumer<Event> onEvent, Consumer<InvalidEventException> onInvalid) {
+    return decodeLines(buf, null, onEvent, onInvalid);
+  }
+
+  /**
+   * Decode newline-delimited events as in {@link #decodeLines(ByteBuf, Consumer, Consumer)},
+   * filling in the session for events that don't carry one.
+   *
+   * @param buf buffer holding newline-delimited JSON events
+   * @param defaultSession session to use for events without one, may be null
+   * @param onEvent receives each valid event, in the order they appear
+   * @param onInvalid receives an exception for each line that fails to decode
+   * @return the number of valid events decoded
+   */
+  public static int decodeLines(
+      ByteBuf buf,
+      String defaultSession,
+      Consumer<Event> onEvent,
+      Consumer<InvalidEventException> onInvalid) {
+    int decoded = 0;
+    int start = buf.readerIndex();
+    final int end = buf.writerIndex();
+
+    while (start < end) {
+      int newline = buf.forEachByte(start, end - start, ByteProcessor.FIND_LF);
+      int lineEnd = newline < 0 ? end : newline;
+
+      if (!isBlank(buf, start, lineEnd)) {
+        try {
+          onEvent.accept(decode(buf.slice(start, lineEnd - start), defaultSession));
+          decoded++;
+        } catch (InvalidEventException e) {
+          onInvalid.accept(e);
+        }
+      }
+      start = lineEnd + 1;
+    }
+    return decoded;
+  }
+
+  /**
+   * Decode a single event from a String.
+   *
+   * @param json JSON event
+   * @return a validated Event
+   * @throws InvalidEventException if the json can't be parsed or fails validation
+   */
+  public static Event decode(String json) {
+    try (JsonParser parser = factory.createParser(json)) {
+      return validate(parse(parser));
+    } catch (Exception e) {
+      throw new InvalidEventException("Could not parse json: " + e.getMessage(), json);
+    }
+  }
+
+  private static boolean isBlank(ByteBuf buf, int from, int to) {
+    for (int i = from; i < to; i++) {
+      byte b = buf.getByte(i);
+      if (b != ' ' && b != '\t' && b != '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static JsonParser createParser(ByteBuf buf) throws IOException {
+    if (buf.hasArray()) {
+      return factory.createParser(
+          buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+    }
+    // Direct buffers get streamed through a view so we don't move the caller's reader index.
+    return factory.createParser((InputStream) new ByteBufInputStream(buf.duplicate()));
+  }
+
+  static Event validate(Event event) {
+    if (event.getSession() == null) {
+      throw new InvalidEventException("event session should not be null!");
+    }
+    if (event.getCounter() == null) {
+      throw new InvalidEventException("event counter should not be null!");
+    }
+    if (event.getType() == null) {
+      throw new InvalidEventException("event type should not be null!");
+    }
+    if (event.getFrame() == null) {
+      throw new InvalidEventException("frame cannot be null!");
+    }
+    if (event.getActor() == null) {
+      throw new InvalidEventException("actor cannot be null!");
+    }
+    if (!event.getActor().getPosition().isPresent()) {
+      throw new InvalidEventException("actors require a position!");
+    }
+    return event;
+  }
+
+  private static Event parse(JsonParser p) throws IOException {
+    expectObject(p, p.nextToken());
+    Event event = new Event();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      JsonToken token = p.nextToken();
+      switch (field) {
+        case "session":
+          event.setSession(token == JsonToken.VALUE_NULL ? null : p.getText());
+          break;
+        case "counter":
+          event.setCounter(token == JsonToken.VALUE_NULL ? null : readInt(p, token));
+          break;
+        case "type":
+          event.setType(token == JsonToken.VALUE_NULL ? null : readEnum(p, token, EVENT_TYPES));
+          break;
+        case "frame":
+          event.setFrame(token == JsonToken.VALUE_NULL ? null : parseFrame(p, token));
+          break;
+        case "actor":
+          event.setActor(token == JsonToken.VALUE_NULL ? null : parseActor(p, token));
+          break;
+        case "target":
+          event.setTarget(
+              token == JsonToken.VALUE_NULL
+                  ? Optional.empty()
+                  : Optional.of(parseActor(p, token)));
+          break;
+        case "level":
+          event.setLevel(
+              token == JsonToken.VALUE_NULL
+                  ? Optional.empty()
+                  : Optional.of(parseLevel(p, token)));
+          break;
+        case "health":
+          event.setHealth(readInt(p, token));
+          break;
+        case "card":
+          event.setCard(readInt(p, token));
+          break;
+        case "damage":
+          event.setDamage(readInt(p, token));
+          break;
+        case "armor":
+          event.setArmor(readInt(p, token));
+          break;
+        case "weapon_type":
+          event.setWeaponType(readInt(p, token));
+          break;
+        case "armor_type":
+          event.setArmorType(readInt(p, token));
+          break;
+        default:
+          throw unknownField("event", field);
+      }
+    }
+    return event;
+  }
+
+  private static Frame parseFrame(JsonParser p, JsonToken token) throws IOException {
+    expectObject(p, token);
+    Frame frame = new Frame();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      token = p.nextToken();
+      switch (field) {
+        case "tic":
+          frame.setTic(readInt(p, token));
+          break;
+        case "millis":
+          frame.setMillis(readInt(p, token));
+          break;
+        default:
+          throw unknownField("frame", field);
+      }
+    }
+    return frame;
+  }
+
+  private static Actor parseActor(JsonParser p, JsonToken token) throws IOException {
+    expectObject(p, token);
+    Actor actor = new Actor();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      token = p.nextToken();
+      switch (field) {
+        case "type":
+          actor.setType(token == JsonToken.VALUE_NULL ? null : readEnum(p, token, ACTOR_TYPES));
+          break;
+        case "id":
+          actor.setId(readLong(p, token));
+          break;
+        case "health":
+          actor.setHealth(readInt(p, token));
+          break;
+        case "armor":
+          actor.setArmor(readInt(p, token));
+          break;
+        case "position":
+          actor.setPosition(
+              token == JsonToken.VALUE_NULL
+                  ? Optional.empty()
+                  : Optional.of(parsePosition(p, token)));
+          break;
+        default:
+          throw unknownField("actor", field);
+      }
+    }
+    return actor;
+  }
+
+  private static Position parsePosition(JsonParser p, JsonToken token) throws IOException {
+    expectObject(p, token);
+    Position position = new Position();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      token = p.nextToken();
+      switch (field) {
+        case "x":
+          position.setX(readInt(p, token));
+          break;
+        case "y":
+          position.setY(readInt(p, token));
+          break;
+        case "z":
+          position.setZ(readInt(p, token));
+          break;
+        case "angle":
+          position.setAngle(readLong(p, token));
+          break;
+        case "subsector":
+          position.setSubsector(readLong(p, token));
+          break;
+        default:
+          throw unknownField("position", field);
+      }
+    }
+    return position;
+  }
+
+  private static Level parseLevel(JsonParser p, JsonToken token) throws IOException {
+    expectObject(p, token);
+    Level level = new Level();
+
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      token = p.nextToken();
+      switch (field) {
+        case "episode":
+          level.setEpisode(readInt(p, token));
+          break;
+        case "level":
+          level.setLevel(readInt(p, token));
+          break;
+        case "difficulty":
+          level.setDifficulty(readInt(p, token));
+          break;
+        default:
+          throw unknownField("level", field);
+      }
+    }
+    return level;
+  }
+
+  private static void expectObject(JsonParser p, JsonToken token) throws IOException {
+    if (token != JsonToken.START_OBJECT) {
+      throw new InvalidEventException(
+          String.format("expected an object but found %s at %s", token, p.getCurrentLocation()));
+    }
+  }
+
+  private static InvalidEventException unknownField(String object, String field) {
+    return new InvalidEventException(String.format("unrecognized %s field '%s'", object, field));
+  }
+
+  private static int readInt(JsonParser p, JsonToken token) throws IOException {
+    switch (token) {
+      case VALUE_NUMBER_INT:
+        return p.getIntValue();
+      case VALUE_NUMBER_FLOAT:
+        return (int) p.getDoubleValue();
+      case VALUE_STRING:
+        return Integer.parseInt(p.getText().trim());
+      case VALUE_NULL:
+        return 0;
+      default:
+        throw new InvalidEventException(
+            String.format("expected an int but found %s at %s", token, p.getCurrentLocation()));
+    }
+  }
+
+  private static long readLong(JsonParser p, JsonToken token) throws IOException {
+    switch (token) {
+      case VALUE_NUMBER_INT:
+        return p.getLongValue();
+      case VALUE_NUMBER_FLOAT:
+        return (long) p.getDoubleValue();
+      case VALUE_STRING:
+        return Long.parseLong(p.getText().trim());
+      case VALUE_NULL:
+        return 0;
+      default:
+        throw new InvalidEventException(
+            String.format("expected a long but found %s at %s", token, p.getCurrentLocation()));
+    }
+  }
+
+  private static <E extends Enum<E>> E readEnum(JsonParser p, JsonToken token, E[] values)
+      throws IOException {
+    if (token == JsonToken.VALUE_NUMBER_INT) {
+      return values[p.getIntValue()];
+    }
+    String name = p.getText().toUpperCase(Locale.ROOT);
+    for (E value : values) {
+      if (value.name().equals(name)) {
+        return value;
+      }
+    }
+    throw new InvalidEventException(String.format("unknown enum value '%s'", p.getText()));
+  }
+}
@@ -0,0 +1,184 @@
+package io.sisu.groom.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import java.util.Arrays;
+
+/**
+ * Shrinks the stream of MOVE events on its way into a batch without losing anything the graph
+ * would show.
+ *
+ * <p>Two things are folded away, per actor:
+ *
+ * <ul>
+ *   <li>a MOVE in the same tic as the actor's previous event, when that event was also a MOVE still
+ *       in the current batch, replaces that row's state, since nothing can observe the actor
+ *       between the two.
+ *   <li>a MOVE leaving the actor exactly as its last recorded state (position, angle, subsector,
+ *       health and armor) is dropped, as it would only add an identical State node, again only
+ *       when the actor's previous event is a MOVE still in the current batch.
+ * </ul>
+ *
+ * <p>Either way the folded event's counter is recorded against the row it was folded into (see
+ * {@link EventBatch#foldedCounters(int)}), so its Event node still accounts for it. Other actors'
+ * events can sit between the two, so the folded counters are kept as they are rather than as a
+ * range. Any other event, or any event involving the actor as a target, is added as-is and becomes
+ * the actor's new reference state.
+ *
+ * <p>Not thread safe; meant to be driven by the single thread filling batches.
+ */
+public class MoveCoalescer {
+
+  /** Last known state of every actor in one session, indexed by the actor's dense index. */
+  private static class Tracks {
+    private boolean[] known = new boolean[0];
+    private int[] x = new int[0];
+    private int[] y = new int[0];
+    private int[] z = new int[0];
+    private long[] angle = new long[0];
+    private long[] subsector = new long[0];
+    private int[] health = new int[0];
+    private int[] armor = new int[0];
+
+    // Where the actor's most recent event sits, if it's a MOVE in the current batch.
+    private long[] generation = new long[0];
+    private int[] row = new int[0];
+    private int[] tic = new int[0];
+
+    private void ensure(int index) {
+      if (index < known.length) {
+        return;
+      }
+      int capacity = Math.max(16, Integer.highestOneBit(index) << 1);
+      known = Arrays.copyOf(known, capacity);
+      x = Arrays.copyOf(x, capacity);
+      y = Arrays.copyOf(y, capacity);
+      z = Arrays.copyOf(z, capacity);
+      angle = Arrays.copyOf(angle, capacity);
+      subsector = Arrays.copyOf(subsector, capacity);
+      health = Arrays.copyOf(health, capacity);
+      armor = Arrays.copyOf(armor, capacity);
+      int old = generation.length;
+      generation = Arrays.copyOf(generation, capacity);
+      Arrays.fill(generation, old, capacity, -1);
+      row = Arrays.copyOf(row, capacity);
+      tic = Arrays.copyOf(tic, capacity);
+    }
+
+    private boolean unchanged(int i, Actor actor, Position p) {
+      return known[i]
+          && x[i] == p.getX()
+          && y[i] == p.getY()
+          && z[i] == p.getZ()
+          && angle[i] == p.getAngle()
+          && subsector[i] == p.getSubsector()
+          && health[i] == actor.getHealth()
+          && armor[i] == actor.getArmor();
+    }
+
+    private void remember(int i, Actor actor) {
+      Position p = actor.getPosition().orElse(null);
+      known[i] = p != null;
+      if (p != null) {
+        x[i] = p.getX();
+        y[i] = p.getY();
+        z[i] = p.getZ();
+        angle[i] = p.getAngle();
+        subsector[i] = p.getSubsector();
+        health[i] = actor.getHealth();
+        armor[i] = actor.getArmor();
+      }
+    }
+  }
+
+  private final Sessions sessions;
+  private Tracks[] tracks = new Tracks[0];
+  private long generation = 0;
+
+  private final Counter merged;
+  private final Counter unchanged;
+
+  public MoveCoalescer(Sessions sessions) {
+    this.sessions = sessions;
+    merged = Metrics.counter("coalesced_events", "reason", "same_tic");
+    unchanged = Metrics.counter("coalesced_events", "reason", "unchanged");
+  }
+
+  private Tracks tracks(SessionState session) {
+    final int id = session.getId();
+    if (id >= tracks.length) {
+      tracks = Arrays.copyOf(tracks, Math.max(4, id + 1 + (id >> 1)));
+    }
+    if (tracks[id] == null) {
+      tracks[id] = new Tracks();
+    }
+    return tracks[id];
+  }
+
+  /**
+   * Add an event to the batch, unless it can be folded into what the batch or the graph already
+   * holds.
+   *
+   * @param batch the batch currently being filled
+   * @param event a validated Event
+   * @return true if the event took a new row in the batch
+   */
+  public boolean add(EventBatch batch, Event event) {
+    final SessionState session = sessions.get(event.getSession());
+    final Tracks t = tracks(session);
+    final Actor actor = event.getActor();
+    final int a = session.getActors().index(actor.getId());
+    t.ensure(a);
+
+    final Position position = actor.getPosition().orElse(null);
+    if (event.getType() == Event.Type.MOVE && position != null) {
+      final boolean inBatch = t.generation[a] == generation;
+      final int tic = event.getFrame().getTic();
+
+      if (inBatch && t.tic[a] == tic) {
+        batch.replaceActor(t.row[a], actor);
+        batch.fold(t.row[a], event.getCounter());
+        t.remember(a, actor);
+        batch.absorb(event);
+        merged.increment();
+        return false;
+      }
+      // With no row to extend, its counter would be lost along with it.
+      if (inBatch && t.unchanged(a, actor, position)) {
+        batch.fold(t.row[a], event.getCounter());
+        batch.absorb(event);
+        unchanged.increment();
+        return false;
+      }
+    }
+
+    final int row = batch.size();
+    batch.add(event);
+    t.remember(a, actor);
+    if (event.getType() == Event.Type.MOVE) {
+      t.generation[a] = generation;
+      t.row[a] = row;
+      t.tic[a] = event.getFrame().getTic();
+    } else {
+      t.generation[a] = -1;
+    }
+
+    event
+        .getTarget()
+        .ifPresent(
+            target -> {
+              int i = session.getActors().index(target.getId());
+              t.ensure(i);
+              t.remember(i, target);
+              t.generation[i] = -1;
+            });
+    return true;
+  }
+
+  /** Forget row positions once the current batch has been handed off and a new one started. */
+  public void nextBatch() {
+    generation++;
+  }
+}
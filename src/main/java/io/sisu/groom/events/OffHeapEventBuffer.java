@@ -0,0 +1,95 @@
+package io.sisu.groom.events;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import io.sisu.util.BoundedQueue;
+import io.sisu.util.RingSequence;
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded, lock-free queue of events kept outside the Java heap.
+ *
+ * <p>Each slot holds one event in the {@link BinaryEventCodec} record layout, prefixed with the id
+ * of its session, its spool position and when it was received, inside a single direct buffer
+ * allocated up front. Memory used by queued events is therefore fixed no matter how far behind the
+ * consumer falls, and queued events put no pressure on the garbage collector. Events are rebuilt
+ * when polled, so only the fields the binary codec carries survive the trip.
+ */
+public class OffHeapEventBuffer implements BoundedQueue<Event>, Closeable {
+  private static final int SLOT_SIZE = 4 + 8 + 8 + BinaryEventCodec.MAX_RECORD_SIZE;
+
+  private final RingSequence sequence;
+  private final Sessions sessions;
+  private final ByteBuf memory;
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  // Each thread gets its own view of the memory so reader/writer indices aren't shared.
+  private final ThreadLocal<ByteBuf> views;
+
+  public OffHeapEventBuffer(int capacity, Sessions sessions) {
+    this.sequence = new RingSequence(capacity);
+    this.sessions = sessions;
+    int bytes = sequence.capacity() * SLOT_SIZE;
+    this.memory = Unpooled.directBuffer(bytes, bytes);
+    this.views = ThreadLocal.withInitial(memory::duplicate);
+  }
+
+  @Override
+  public boolean offer(Event event) {
+    long pos = sequence.claimWrite();
+    if (pos < 0) {
+      return false;
+    }
+    ByteBuf view = views.get();
+    view.setIndex(0, sequence.slot(pos) * SLOT_SIZE);
+    view.writeInt(sessions.get(event.getSession()).getId());
+    view.writeLong(event.getSpoolPosition());
+    view.writeLong(event.getReceivedNanos());
+    BinaryEventCodec.encodeRecord(event, view);
+    sequence.publishWrite(pos);
+    return true;
+  }
+
+  @Override
+  public Event poll() {
+    long pos = sequence.claimRead();
+    if (pos < 0) {
+      return null;
+    }
+    ByteBuf view = views.get();
+    int offset = sequence.slot(pos) * SLOT_SIZE;
+    view.setIndex(offset, offset + SLOT_SIZE);
+    try {
+      SessionState session = sessions.get(view.readInt());
+      long spoolPosition = view.readLong();
+      long receivedNanos = view.readLong();
+      Event event = BinaryEventCodec.decodeRecord(session.getName(), view);
+      event.setSpoolPosition(spoolPosition);
+      event.setReceivedNanos(receivedNanos);
+      return event;
+    } finally {
+      sequence.publishRead(pos);
+    }
+  }
+
+  @Override
+  public int size() {
+    return sequence.size();
+  }
+
+  @Override
+  public int capacity() {
+    return sequence.capacity();
+  }
+
+  /** Free the buffer's memory. Nothing may be offered or polled afterwards. */
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      memory.release();
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package io.sisu.groom.events;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Puts each session's events back into {@code counter} order before they reach a batch, so the
+ * chains, the coalescer and everything after them only ever see a session's events in sequence.
+ *
+ * <p>An event carrying the next counter of its session goes straight through. One from further
+ * ahead is held until the events before it turn up, but only for so long: once an event has been
+ * held for the maximum hold time, or its session has more events held than the buffer's depth, the
+ * missing counters before it are given up on as a gap and the held events are released up to it.
+ * Anything arriving after its turn has passed (late, or a duplicate) is dropped, as letting it
+ * through would break the order. The first event seen for a session starts its sequence.
+ *
+ * <p>Held events haven't reached a batch yet, so the spool can't be committed past them; see
+ * {@link #heldSpoolPosition(int)}.
+ *
+ * <p>Not thread safe; meant to be driven by the single thread filling batches.
+ */
+public class ReorderBuffer {
+
+  /** One session's sequence. */
+  private static class Sequence {
+    private boolean started = false;
+    private int next;
+    // Release everything held up to here, whether or not the gaps before it have been filled.
+    private int releaseThrough = Integer.MIN_VALUE;
+    private boolean ready = false;
+    private final TreeMap<Integer, Event> held = new TreeMap<>();
+
+    private boolean releasable() {
+      if (held.isEmpty()) {
+        return false;
+      }
+      final int head = held.firstKey();
+      return head == next || head <= releaseThrough;
+    }
+  }
+
+  /** A held event, in the order it arrived. */
+  private static class Arrival {
+    private final Sequence sequence;
+    private final int counter;
+    private final long nanos;
+
+    private Arrival(Sequence sequence, int counter, long nanos) {
+      this.sequence = sequence;
+      this.counter = counter;
+      this.nanos = nanos;
+    }
+  }
+
+  private final Sessions sessions;
+  private final long maxHoldNanos;
+  private final int depth;
+
+  private Sequence[] sequences = new Sequence[0];
+  private final ArrayDeque<Arrival> arrivals = new ArrayDeque<>();
+  private final ArrayDeque<Sequence> ready = new ArrayDeque<>();
+  private int size = 0;
+  // How many held events came from each spooled datagram.
+  private final TreeMap<Long, Integer> positions = new TreeMap<>();
+
+  private final Counter reordered;
+  private final Counter gaps;
+  private final Counter skipped;
+  private final Counter late;
+  private final Counter duplicates;
+
+  /**
+   * @param sessions session registry
+   * @param maxHoldNanos longest an event is held waiting for the ones before it
+   * @param depth most events held for any one session
+   */
+  public ReorderBuffer(Sessions sessions, long maxHoldNanos, int depth) {
+    this.sessions = sessions;
+    this.maxHoldNanos = maxHoldNanos;
+    this.depth = depth;
+    reordered = Metrics.counter("reordered_events");
+    gaps = Metrics.counter("reorder_gaps");
+    skipped = Metrics.counter("reorder_skipped_counters");
+    late = Metrics.counter("reorder_dropped", "reason", "late");
+    duplicates = Metrics.counter("reorder_dropped", "reason", "duplicate");
+  }
+
+  private Sequence sequence(SessionState session) {
+    final int id = session.getId();
+    if (id >= sequences.length) {
+      sequences = Arrays.copyOf(sequences, Math.max(4, id + 1 + (id >> 1)));
+    }
+    if (sequences[id] == null) {
+      sequences[id] = new Sequence();
+    }
+    return sequences[id];
+  }
+
+  /**
+   * Take an event in.
+   *
+   * @param event a validated Event
+   * @param now current {@link System#nanoTime()}
+   * @return the event, if it's next in its session and can go straight on, otherwise null
+   */
+  public Event add(Event event, long now) {
+    final Sequence s = sequence(sessions.get(event.getSession()));
+    final int counter = event.getCounter();
+    if (!s.started) {
+      s.started = true;
+      s.next = counter;
+    }
+    if (counter < s.next) {
+      late.increment();
+      return null;
+    }
+    if (s.held.containsKey(counter)) {
+      duplicates.increment();
+      return null;
+    }
+    if (counter == s.next) {
+      s.next++;
+      markReady(s);
+      return event;
+    }
+
+    s.held.put(counter, event);
+    arrivals.add(new Arrival(s, counter, now));
+    size++;
+    if (event.getSpoolPosition() != 0) {
+      positions.merge(event.getSpoolPosition(), 1, Integer::sum);
+    }
+    if (s.held.size() > depth) {
+      s.releaseThrough = Math.max(s.releaseThrough, s.held.firstKey());
+    }
+    markReady(s);
+    return null;
+  }
+
+  /**
+   * Release the next held event that can go, either because the events before it have all arrived
+   * or because it's no longer worth waiting for them.
+   *
+   * @param now current {@link System#nanoTime()}, or {@link Long#MAX_VALUE} to release everything
+   * @return a held event, or null if none can go yet
+   */
+  public Event poll(long now) {
+    expire(now);
+    Sequence s;
+    while ((s = ready.peek()) != null) {
+      if (!s.releasable()) {
+        ready.poll();
+        s.ready = false;
+        continue;
+      }
+      final int counter = s.held.firstKey();
+      if (counter != s.next) {
+        gaps.increment();
+        skipped.increment(counter - (double) s.next);
+      }
+      s.next = counter + 1;
+      size--;
+      reordered.increment();
+      final Event event = s.held.remove(counter);
+      if (event.getSpoolPosition() != 0) {
+        positions.computeIfPresent(event.getSpoolPosition(), (p, n) -> n == 1 ? null : n - 1);
+      }
+      return event;
+    }
+    return null;
+  }
+
+  private void expire(long now) {
+    Arrival oldest;
+    while ((oldest = arrivals.peek()) != null) {
+      final Sequence s = oldest.sequence;
+      if (oldest.counter < s.next) {
+        // Already released.
+        arrivals.poll();
+      } else if (now == Long.MAX_VALUE || now - oldest.nanos >= maxHoldNanos) {
+        arrivals.poll();
+        s.releaseThrough = Math.max(s.releaseThrough, oldest.counter);
+        markReady(s);
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void markReady(Sequence s) {
+    if (!s.ready && s.releasable()) {
+      s.ready = true;
+      ready.add(s);
+    }
+  }
+
+  /**
+   * @param stream spool stream
+   * @return the position of the oldest datagram from that stream an event is being held from, or
+   *     0 if none
+   */
+  public long heldSpoolPosition(int stream) {
+    final Long held = positions.ceilingKey(SpoolPosition.of(stream, 0));
+    return held != null && SpoolPosition.stream(held) == stream ? held : 0;
+  }
+
+  /** @return the number of events being held */
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,37 @@
+package io.sisu.groom.events;
+
+/**
+ * Packs a spool stream and an offset within it into the single long carried by each {@link
+ * Event}. Every listener appends to a stream of its own, so positions only order datagrams within
+ * a stream and never across them.
+ *
+ * <p>0 still means "not spooled", as an offset is always just past a record and never 0.
+ */
+public final class SpoolPosition {
+  /** Most streams a spool can have, one per bit of a {@code long} mask. */
+  public static final int MAX_STREAMS = Long.SIZE;
+
+  private static final int OFFSET_BITS = 48;
+  private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+  private SpoolPosition() {}
+
+  /**
+   * @param stream stream index, below {@link #MAX_STREAMS}
+   * @param offset offset within the stream, below 2^48
+   * @return the spool position
+   */
+  public static long of(int stream, long offset) {
+    return (long) stream << OFFSET_BITS | offset;
+  }
+
+  /** @return the stream a (non-zero) spool position belongs to */
+  public static int stream(long position) {
+    return (int) (position >>> OFFSET_BITS);
+  }
+
+  /** @return the offset of a spool position within its stream */
+  public static long offset(long position) {
+    return position & OFFSET_MASK;
+  }
+}
@@ -0,0 +1,176 @@
+package io.sisu.groom.sessions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tails of a session's Frame, Event and per-actor State chains, so that each new node can be
+ * linked to its predecessor (PREV_FRAME, PREV_EVENT, PREV_STATE) as it is inserted instead of
+ * re-threading the whole graph after every batch.
+ *
+ * <p>Tails advance as rows are added to a batch. The first node of each chain seen by this process
+ * gets {@link #UNKNOWN} as its predecessor; if the session already has nodes in the database from
+ * before a restart, the writer can {@link #resume} with their tails so the chains carry on where
+ * they left off.
+ *
+ * <p>If a batch is never stored, the writer can {@link #lose} its span of the chains. Predecessors
+ * within it are then as good as unknown, and the chains have to be resumed again to find where
+ * they really end.
+ */
+public class Chains {
+  /** No link is needed, e.g. the event belongs to a frame that is already linked. */
+  public static final int NONE = Integer.MIN_VALUE;
+  /** A link is needed, but the predecessor was created before this process started (if ever). */
+  public static final int UNKNOWN = Integer.MIN_VALUE + 1;
+
+  private int tic = UNKNOWN;
+  private int counter = UNKNOWN;
+  private int[] states = new int[0];
+
+  private volatile boolean resumed = false;
+  private int resumedTic = NONE;
+  private int resumedCounter = NONE;
+  private Map<Long, Integer> resumedStates = Collections.emptyMap();
+  private final List<Span> lost = new ArrayList<>();
+
+  /** The counters and tics of a run of a session's events. */
+  public static final class Span {
+    private final int firstCounter;
+    private final int lastCounter;
+    private final int firstTic;
+    private final int lastTic;
+
+    public Span(int firstCounter, int lastCounter, int firstTic, int lastTic) {
+      this.firstCounter = firstCounter;
+      this.lastCounter = lastCounter;
+      this.firstTic = firstTic;
+      this.lastTic = lastTic;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Span[counters %d to %d, tics %d to %d]", firstCounter, lastCounter, firstTic, lastTic);
+    }
+  }
+
+  /**
+   * Advance the frame chain.
+   *
+   * @param tic tic of an event's frame
+   * @return the tic the frame should link to, {@link #NONE} if it's the current frame or {@link
+   *     #UNKNOWN} if it starts the chain
+   */
+  public int nextFrame(int tic) {
+    if (tic == this.tic) {
+      return NONE;
+    }
+    int prev = this.tic;
+    this.tic = tic;
+    return prev;
+  }
+
+  /**
+   * Advance the event chain.
+   *
+   * @param counter counter of a new event
+   * @return the counter of the event to link to, or {@link #UNKNOWN} if it starts the chain
+   */
+  public int nextEvent(int counter) {
+    int prev = this.counter;
+    this.counter = counter;
+    return prev;
+  }
+
+  /**
+   * Advance an actor's state chain.
+   *
+   * @param actor the actor's dense index within the session
+   * @param counter counter of the event the new state belongs to
+   * @return the counter of the state to link to, or {@link #UNKNOWN} if it starts the chain
+   */
+  public int nextState(int actor, int counter) {
+    if (actor >= states.length) {
+      int old = states.length;
+      states = Arrays.copyOf(states, Math.max(16, Integer.highestOneBit(actor) << 1));
+      Arrays.fill(states, old, states.length, UNKNOWN);
+    }
+    int prev = states[actor];
+    states[actor] = counter;
+    return prev;
+  }
+
+  /** @return true once {@link #resume} has been called */
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  /**
+   * Record the chain tails already in the database.
+   *
+   * @param tic newest frame tic, or {@link #NONE}
+   * @param counter newest event counter, or {@link #NONE}
+   * @param states newest state counter by actor id
+   */
+  public void resume(int tic, int counter, Map<Long, Integer> states) {
+    resumedTic = tic;
+    resumedCounter = counter;
+    resumedStates = states;
+    resumed = true;
+  }
+
+  /**
+   * Give up on a span of events that were linked to but never stored, and forget where the chains
+   * were resumed from, since it may have moved on since.
+   *
+   * @param span counters and tics of the events
+   */
+  public void lose(Span span) {
+    lost.add(span);
+    resumed = false;
+  }
+
+  /**
+   * @param counter counter of an event (or the state it holds) that something links to
+   * @return true if the event may never have been stored, see {@link #lose}
+   */
+  public boolean isLost(int counter) {
+    for (int i = 0; i < lost.size(); i++) {
+      if (lost.get(i).firstCounter <= counter && counter <= lost.get(i).lastCounter) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param tic tic of a frame that something links to
+   * @return true if the frame may never have been stored, see {@link #lose}
+   */
+  public boolean isLostFrame(int tic) {
+    for (int i = 0; i < lost.size(); i++) {
+      if (lost.get(i).firstTic <= tic && tic <= lost.get(i).lastTic) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the tic to link an {@link #UNKNOWN} frame predecessor to, or {@link #NONE} */
+  public int resumedFrame() {
+    return resumedTic;
+  }
+
+  /** @return the counter to link an {@link #UNKNOWN} event predecessor to, or {@link #NONE} */
+  public int resumedEvent() {
+    return resumedCounter;
+  }
+
+  /** @return the counter to link an actor's {@link #UNKNOWN} state predecessor to, or NONE */
+  public int resumedState(long actorId) {
+    return resumedStates.getOrDefault(actorId, NONE);
+  }
+}
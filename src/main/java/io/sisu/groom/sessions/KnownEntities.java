@@ -0,0 +1,92 @@
+package io.sisu.groom.sessions;
+
+import java.util.BitSet;
+
+/**
+ * What a session already has in the database, so the bulk insert can CREATE Frames and SubSectors
+ * that are certainly new and MATCH the ones that certainly exist, keeping MERGE for the few it
+ * can't be sure about.
+ *
+ * <p>Frames only ever get newer, so the highest tic written is all that needs remembering.
+ * SubSectors are tracked by their dense index in {@link SessionState#getSubsectors()}, so this
+ * grows no faster than the session's own tables. Actors need nothing here: an actor is new exactly
+ * when its {@link Chains state chain} starts in the current batch.
+ *
+ * <p>Consulted while compiling a batch, after the session's chains have been resumed. Like the
+ * rest of {@link SessionState}, it's only ever used by one writer at a time.
+ */
+public class KnownEntities {
+  /** How an entity should be written. */
+  public enum Write {
+    /** Certainly not in the database yet. */
+    CREATE,
+    /** Certainly in the database already. */
+    MATCH,
+    /** Might be either, e.g. first seen after a restart. */
+    MERGE
+  }
+
+  private final Chains chains;
+  private boolean initialized = false;
+  private boolean fresh;
+  private int highestTic;
+  private final BitSet subsectors = new BitSet();
+
+  KnownEntities(Chains chains) {
+    this.chains = chains;
+  }
+
+  private void initialize() {
+    if (!initialized) {
+      highestTic = chains.resumedFrame();
+      // Without a single event from before the restart, the session had nothing stored at all.
+      fresh = chains.resumedEvent() == Chains.NONE && chains.resumedFrame() == Chains.NONE;
+      initialized = true;
+    }
+  }
+
+  /**
+   * Decide how to write the frame an event starts.
+   *
+   * @param tic tic of a frame that differs from the session's previous event's
+   * @return how to write the frame
+   */
+  public Write frame(int tic) {
+    initialize();
+    if (tic > highestTic || highestTic == Chains.NONE) {
+      highestTic = tic;
+      return Write.CREATE;
+    }
+    return Write.MERGE;
+  }
+
+  /**
+   * @param tic tic of a frame
+   * @return true if the frame has been written, or might have been
+   */
+  public boolean hasFrame(int tic) {
+    initialize();
+    return highestTic != Chains.NONE && tic <= highestTic;
+  }
+
+  /**
+   * Decide how to write a subsector, remembering it as written from now on.
+   *
+   * @param index the subsector's dense index within the session
+   * @return how to write the subsector
+   */
+  public Write subsector(int index) {
+    initialize();
+    if (subsectors.get(index)) {
+      return Write.MATCH;
+    }
+    subsectors.set(index);
+    return fresh ? Write.CREATE : Write.MERGE;
+  }
+
+  /** Forget everything written, to be worked out again once the chains are resumed. */
+  void forget() {
+    initialized = false;
+    subsectors.clear();
+  }
+}
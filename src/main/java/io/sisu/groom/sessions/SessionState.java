@@ -0,0 +1,71 @@
+package io.sisu.groom.sessions;
+
+import io.sisu.util.LongIndex;
+
+/**
+ * Everything groom keeps in memory about a single game session.
+ *
+ * <p>Actor and subsector ids are mapped to dense per-session indices that stages needing per-actor
+ * or per-subsector state can use as array offsets. A session's state is only ever touched by the
+ * one stage that is handling that session's events at a time, so it isn't synchronized.
+ */
+public class SessionState {
+  private final int id;
+  private final String name;
+  private final LongIndex actors = new LongIndex(256);
+  private final LongIndex subsectors = new LongIndex(1024);
+  private final Chains chains = new Chains();
+  private final KnownEntities known = new KnownEntities(chains);
+
+  SessionState(int id, String name) {
+    this.id = id;
+    this.name = name;
+  }
+
+  /** @return a small integer uniquely identifying this session within the process */
+  public int getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** @return the table of actor ids seen in this session */
+  public LongIndex getActors() {
+    return actors;
+  }
+
+  /** @return the table of subsector ids seen in this session */
+  public LongIndex getSubsectors() {
+    return subsectors;
+  }
+
+  /** @return the tails of this session's frame, event and state chains */
+  public Chains getChains() {
+    return chains;
+  }
+
+  /** @return what this session already has in the database */
+  public KnownEntities getKnown() {
+    return known;
+  }
+
+  /**
+   * Account for events that will never be stored, though the chains have already moved past them
+   * and they may have been taken as written. The chains then have to be resumed again before the
+   * session's next batch is compiled.
+   *
+   * @param span counters and tics of the events
+   */
+  public void lose(Chains.Span span) {
+    chains.lose(span);
+    known.forget();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "SessionState[%s, %d actors, %d subsectors]", name, actors.size(), subsectors.size());
+  }
+}
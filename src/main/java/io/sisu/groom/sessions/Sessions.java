@@ -0,0 +1,56 @@
+package io.sisu.groom.sessions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** Registry of the {@link SessionState} for every session groom has seen events from. */
+public class Sessions {
+  private final ConcurrentMap<String, SessionState> sessions = new ConcurrentHashMap<>();
+  private volatile SessionState[] byId = new SessionState[16];
+  private int nextId = 0;
+
+  /**
+   * Get the state for a session, creating it the first time the session is seen.
+   *
+   * @param name session name
+   * @return the session's state
+   */
+  public SessionState get(String name) {
+    SessionState state = sessions.get(name);
+    return state != null ? state : sessions.computeIfAbsent(name, this::create);
+  }
+
+  /**
+   * Look up a session by its id.
+   *
+   * @param id id from {@link SessionState#getId()}
+   * @return the session's state, or null if no session has that id
+   */
+  public SessionState get(int id) {
+    SessionState[] states = byId;
+    return id < states.length ? states[id] : null;
+  }
+
+  private synchronized SessionState create(String name) {
+    // Not sessions.size(), which doesn't count a session until computeIfAbsent has returned.
+    SessionState state = new SessionState(nextId++, name);
+    SessionState[] states = byId;
+    if (state.getId() >= states.length) {
+      states = Arrays.copyOf(states, states.length * 2);
+    }
+    states[state.getId()] = state;
+    byId = states;
+    return state;
+  }
+
+  public Collection<SessionState> all() {
+    return Collections.unmodifiableCollection(sessions.values());
+  }
+
+  public int size() {
+    return sessions.size();
+  }
+}
@@ -0,0 +1,20 @@
+package io.sisu.util;
+
+/**
+ * A fixed-capacity, non-blocking queue that is safe to use from multiple producer and consumer
+ * threads.
+ *
+ * @param <T>
+ */
+public interface BoundedQueue<T> {
+
+  /** @return true if the item was queued, false if the queue was full */
+  boolean offer(T item);
+
+  /** @return the oldest queued item, or null if the queue is empty */
+  T poll();
+
+  int size();
+
+  int capacity();
+}
@@ -1,16 +1,18 @@
 package io.sisu.util;
 
+import java.util.List;
 import org.neo4j.driver.Query;
 
 /**
- * Simple datatype for easily conveying how many "updates" are contained in a Query.
+ * Simple datatype for easily conveying how many "updates" are contained in a set of Queries meant
+ * to run, in order, in a single transaction.
  */
 public class BulkQuery {
   public int size;
-  public Query query;
+  public List<Query> queries;
 
-  public BulkQuery(int size, Query query) {
+  public BulkQuery(int size, List<Query> queries) {
     this.size = size;
-    this.query = query;
+    this.queries = queries;
   }
 }
@@ -0,0 +1,93 @@
+package io.sisu.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+
+/**
+ * Query parameters for an UNWIND, kept as one list per column instead of one map per row.
+ *
+ * <p>Values go straight into driver {@link Value}s as they're added, so building a batch's
+ * parameters allocates no per-row maps or boxed numbers, and nothing needs converting again when
+ * the query is sent. Column names also go over the wire once per query rather than once per row.
+ * The query reads row {@code i} as {@code $column[i]}.
+ *
+ * <p>Not thread safe.
+ */
+public class ColumnarParams {
+  private final String[] names;
+  private Value[][] columns;
+  private int size = 0;
+  private int column;
+
+  /** @param names names of the columns, in the order values are added to each row */
+  public ColumnarParams(String... names) {
+    this.names = names;
+    this.columns = new Value[names.length][16];
+    this.column = names.length;
+  }
+
+  /**
+   * Start a new row. Follow with exactly one {@code add} per column, in column order.
+   *
+   * @return this
+   */
+  public ColumnarParams row() {
+    checkRowComplete();
+    if (size == columns[0].length) {
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = Arrays.copyOf(columns[i], size * 2);
+      }
+    }
+    size++;
+    column = 0;
+    return this;
+  }
+
+  public ColumnarParams add(Value value) {
+    if (column == names.length) {
+      throw new IllegalStateException(
+          size == 0
+              ? "no row started"
+              : "row " + (size - 1) + " already has all " + names.length + " columns");
+    }
+    columns[column++][size - 1] = value;
+    return this;
+  }
+
+  public ColumnarParams add(int value) {
+    return add(Values.value(value));
+  }
+
+  public ColumnarParams add(long value) {
+    return add(Values.value(value));
+  }
+
+  /** Add nothing for this row's column, which the query sees as null. */
+  public ColumnarParams skip() {
+    return add(Values.NULL);
+  }
+
+  /** @return the number of rows */
+  public int size() {
+    return size;
+  }
+
+  /** @return the parameters, each column as a list named after it */
+  public Map<String, Object> toParameters() {
+    checkRowComplete();
+    Map<String, Object> params = new HashMap<>(names.length * 2);
+    for (int i = 0; i < names.length; i++) {
+      params.put(names[i], Values.value(Arrays.copyOf(columns[i], size)));
+    }
+    return params;
+  }
+
+  private void checkRowComplete() {
+    if (column != names.length) {
+      throw new IllegalStateException("row " + (size - 1) + " is missing columns");
+    }
+  }
+}
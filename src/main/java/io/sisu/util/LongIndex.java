@@ -0,0 +1,110 @@
+package io.sisu.util;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int indices (0, 1, 2, ...) to arbitrary long keys, in order of first appearance.
+ *
+ * <p>Backed by an open-addressing table of primitives, so looking up a key neither boxes nor
+ * allocates. The dense indices are meant to be used as offsets into arrays of per-key state.
+ *
+ * <p>Not thread safe.
+ */
+public class LongIndex {
+  private static final int FREE = -1;
+
+  private long[] keys;
+  private int[] slots;
+  private long[] ids;
+  private int mask;
+  private int size = 0;
+
+  public LongIndex() {
+    this(64);
+  }
+
+  public LongIndex(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+    keys = new long[capacity];
+    slots = new int[capacity];
+    Arrays.fill(slots, FREE);
+    ids = new long[Math.max(expectedSize, 8)];
+    mask = capacity - 1;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int slotOf(long key) {
+    int slot = hash(key) & mask;
+    while (slots[slot] != FREE && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Look up the index of a key without assigning one.
+   *
+   * @param key key to look up
+   * @return the key's index, or -1 if it hasn't been seen
+   */
+  public int indexOf(long key) {
+    return slots[slotOf(key)];
+  }
+
+  /**
+   * Look up the index of a key, assigning the next free index if it hasn't been seen before.
+   *
+   * @param key key to look up
+   * @return the key's index
+   */
+  public int index(long key) {
+    int slot = slotOf(key);
+    if (slots[slot] != FREE) {
+      return slots[slot];
+    }
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, ids.length * 2);
+    }
+    ids[size] = key;
+    keys[slot] = key;
+    slots[slot] = size;
+    size++;
+
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+    return size - 1;
+  }
+
+  /**
+   * @param index a previously assigned index
+   * @return the key the index was assigned to
+   */
+  public long key(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index " + index + " of " + size);
+    }
+    return ids[index];
+  }
+
+  /** @return the number of keys indexed so far */
+  public int size() {
+    return size;
+  }
+
+  private void rehash(int capacity) {
+    keys = new long[capacity];
+    slots = new int[capacity];
+    Arrays.fill(slots, FREE);
+    mask = capacity - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = slotOf(ids[i]);
+      keys[slot] = ids[i];
+      slots[slot] = i;
+    }
+  }
+}
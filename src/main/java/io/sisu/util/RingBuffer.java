@@ -0,0 +1,52 @@
+package io.sisu.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, allocation-free queue of object references.
+ *
+ * @param <T>
+ */
+public class RingBuffer<T> implements BoundedQueue<T> {
+  private final RingSequence sequence;
+  private final AtomicReferenceArray<T> items;
+
+  public RingBuffer(int capacity) {
+    sequence = new RingSequence(capacity);
+    items = new AtomicReferenceArray<>(sequence.capacity());
+  }
+
+  @Override
+  public boolean offer(T item) {
+    long pos = sequence.claimWrite();
+    if (pos < 0) {
+      return false;
+    }
+    items.lazySet(sequence.slot(pos), item);
+    sequence.publishWrite(pos);
+    return true;
+  }
+
+  @Override
+  public T poll() {
+    long pos = sequence.claimRead();
+    if (pos < 0) {
+      return null;
+    }
+    int slot = sequence.slot(pos);
+    T item = items.get(slot);
+    items.lazySet(slot, null);
+    sequence.publishRead(pos);
+    return item;
+  }
+
+  @Override
+  public int size() {
+    return sequence.size();
+  }
+
+  @Override
+  public int capacity() {
+    return sequence.capacity();
+  }
+}
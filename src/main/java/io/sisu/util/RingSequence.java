@@ -0,0 +1,94 @@
+package io.sisu.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The sequencing half of a bounded, lock-free ring buffer, independent of where the slots live.
+ *
+ * <p>Follows Dmitry Vyukov's bounded queue: every slot carries a sequence number telling producers
+ * and consumers whether it is free to write or ready to read, so any number of threads can claim
+ * slots on either side with a single CAS and nothing is allocated per operation. A claimed slot
+ * must be published once the caller is done with it.
+ */
+public class RingSequence {
+  private final int capacity;
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /** @param capacity minimum number of slots, rounded up to a power of two */
+  public RingSequence(int capacity) {
+    if (capacity < 2 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("ring capacity out of range: " + capacity);
+    }
+    this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /** @return a position to write to, or -1 if the ring is full */
+  public long claimWrite() {
+    long pos = tail.get();
+    for (; ; ) {
+      long diff = sequences.get(slot(pos)) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          return pos;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        return -1;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  /** Make a written slot visible to consumers. */
+  public void publishWrite(long pos) {
+    sequences.lazySet(slot(pos), pos + 1);
+  }
+
+  /** @return a position to read from, or -1 if the ring is empty */
+  public long claimRead() {
+    long pos = head.get();
+    for (; ; ) {
+      long diff = sequences.get(slot(pos)) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          return pos;
+        }
+        pos = head.get();
+      } else if (diff < 0) {
+        return -1;
+      } else {
+        pos = head.get();
+      }
+    }
+  }
+
+  /** Hand a read slot back to producers. */
+  public void publishRead(long pos) {
+    sequences.lazySet(slot(pos), pos + capacity);
+  }
+
+  /** @return the slot index a position maps to */
+  public int slot(long pos) {
+    return (int) pos & mask;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /** @return an estimate of the number of claimed or occupied slots */
+  public int size() {
+    long used = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(used, capacity));
+  }
+}
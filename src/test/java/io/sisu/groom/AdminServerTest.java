@@ -0,0 +1,94 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.netty.http.client.HttpClient;
+
+public class AdminServerTest {
+  private Config config;
+  private List<BatchController> controllers;
+  private PrometheusMeterRegistry registry;
+  private AdminServer admin;
+  private HttpClient client;
+
+  @BeforeEach
+  void setUp() {
+    config = new Config(new String[] {"--buffer-size", "4000", "--flush-interval", "4"});
+    config.httpPort = 0; // Any free port
+    controllers =
+        Arrays.asList(BatchController.forLane(config, 0), BatchController.forLane(config, 1));
+    registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    admin =
+        AdminServer.bind(
+            config, registry, controllers, () -> Collections.singletonMap("handoff", 12));
+    client = HttpClient.create().baseUrl("http://127.0.0.1:" + admin.port());
+  }
+
+  @AfterEach
+  void tearDown() {
+    admin.close();
+  }
+
+  /** @return the response status and body, e.g. "200 {...}" */
+  private String request(HttpClient.ResponseReceiver<?> request) {
+    return request
+        .responseSingle(
+            (res, body) ->
+                body.asString().defaultIfEmpty("").map(s -> res.status().code() + " " + s))
+        .block(Duration.ofSeconds(10));
+  }
+
+  @Test
+  void servesMetricsForPrometheus() {
+    Counter.builder("admin_test_events").register(registry).increment(3);
+    String metrics = request(client.get().uri("/metrics"));
+    Assertions.assertTrue(metrics.startsWith("200 "), metrics);
+    Assertions.assertTrue(metrics.contains("admin_test_events_total 3.0"), metrics);
+  }
+
+  @Test
+  void changesBatchingOnEveryLane() {
+    String pipeline = request(client.get().uri("/admin/pipeline"));
+    Assertions.assertTrue(pipeline.contains("\"bufferSize\":4000"), pipeline);
+    Assertions.assertTrue(pipeline.contains("\"queues\":{\"handoff\":12}"), pipeline);
+
+    String changed =
+        request(client.post().uri("/admin/batching?buffer-size=1000&flush-interval=2"));
+    Assertions.assertTrue(changed.startsWith("200 "), changed);
+    Assertions.assertTrue(changed.contains("\"bufferSize\":1000"), changed);
+    for (BatchController controller : controllers) {
+      Assertions.assertEquals(1000, controller.batchSize());
+      Assertions.assertEquals(TimeUnit.SECONDS.toNanos(2), controller.windowNanos());
+    }
+    Assertions.assertEquals(1000, config.bufferSize);
+
+    // Leaving one out keeps it as it is.
+    request(client.post().uri("/admin/batching?flush-interval=1"));
+    Assertions.assertEquals(1000, controllers.get(1).batchSize());
+    Assertions.assertEquals(TimeUnit.SECONDS.toNanos(1), controllers.get(1).windowNanos());
+  }
+
+  @Test
+  void refusesBadBatching() {
+    Assertions.assertTrue(
+        request(client.post().uri("/admin/batching?buffer-size=lots")).startsWith("400 "));
+    Assertions.assertTrue(
+        request(client.post().uri("/admin/batching?buffer-size=10")).startsWith("400 "));
+    Assertions.assertTrue(
+        request(client.post().uri("/admin/batching?flush-interval=0")).startsWith("400 "));
+
+    // Nothing changed.
+    Assertions.assertEquals(4000, controllers.get(0).batchSize());
+    Assertions.assertEquals(4000, config.bufferSize);
+  }
+}
@@ -0,0 +1,54 @@
+package io.sisu.groom;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BatchControllerTest {
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(3);
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+
+  @Test
+  void slowCommitsShrinkBatchesAndTheirWindow() {
+    BatchController controller =
+        new BatchController(true, 4000, Duration.ofSeconds(4), Duration.ofSeconds(1));
+    controller.stored(4000, SLOW);
+    Assertions.assertEquals(3000, controller.batchSize());
+    Assertions.assertEquals(TimeUnit.SECONDS.toNanos(3), controller.windowNanos());
+
+    for (int i = 0; i < 100; i++) {
+      controller.stored(controller.batchSize(), SLOW);
+    }
+    Assertions.assertEquals(BatchController.MIN_SIZE, controller.batchSize());
+    // The window shrinks in proportion, 4s * 250 / 4000.
+    Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(250), controller.windowNanos());
+  }
+
+  @Test
+  void onlyFullBatchesThatCommitQuicklyGrow() {
+    BatchController controller =
+        new BatchController(true, 4000, Duration.ofSeconds(4), Duration.ofSeconds(1));
+    // A partial batch says nothing about whether a bigger one would be better.
+    controller.stored(1000, FAST);
+    Assertions.assertEquals(4000, controller.batchSize());
+
+    controller.stored(4000, FAST);
+    Assertions.assertEquals(4500, controller.batchSize());
+    Assertions.assertEquals(TimeUnit.SECONDS.toNanos(4), controller.windowNanos());
+
+    for (int i = 0; i < 100; i++) {
+      controller.stored(controller.batchSize(), FAST);
+    }
+    Assertions.assertEquals(BatchController.MAX_SIZE, controller.batchSize());
+  }
+
+  @Test
+  void fixedControllersNeverChange() {
+    BatchController controller = BatchController.fixed(500, Duration.ofSeconds(5));
+    controller.stored(500, SLOW);
+    controller.stored(500, FAST);
+    Assertions.assertEquals(500, controller.batchSize());
+    Assertions.assertEquals(TimeUnit.SECONDS.toNanos(5), controller.windowNanos());
+  }
+}
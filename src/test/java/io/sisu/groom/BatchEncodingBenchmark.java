@@ -0,0 +1,122 @@
+package io.sisu.groom;
+
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.EventDecoder;
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import io.sisu.util.BulkQuery;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares encoding 10k.log as one map per event (Event.toMap(), converted to driver Values the way
+ * the driver does when sending) against the columnar stage parameters the bulk insert uses.
+ *
+ * <p>Not a rigorous benchmark, but enough to show the difference in time and, more reliably,
+ * bytes allocated per event. Left out of {@code gradle test}; run it with {@code gradle
+ * benchmark}.
+ */
+@Tag("benchmark")
+public class BatchEncodingBenchmark {
+  private static final Logger logger = LoggerFactory.getLogger(BatchEncodingBenchmark.class);
+  private static final int WARMUP = 10;
+  private static final int ROUNDS = 20;
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** @return nanoseconds and bytes allocated per event, averaged over the rounds */
+  private static double[] measure(int events, Supplier<EventBatch> setup, Encoder encoder) {
+    long nanos = 0;
+    long bytes = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      EventBatch batch = setup.get();
+      final long startBytes = allocatedBytes();
+      final long start = System.nanoTime();
+      Object encoded = encoder.encode(batch);
+      final long elapsed = System.nanoTime() - start;
+      final long allocated = allocatedBytes() - startBytes;
+      Assertions.assertNotNull(encoded);
+      if (round >= WARMUP) {
+        nanos += elapsed;
+        bytes += allocated;
+      }
+    }
+    return new double[] {nanos / (double) ROUNDS / events, bytes / (double) ROUNDS / events};
+  }
+
+  private interface Encoder {
+    Object encode(EventBatch batch);
+  }
+
+  @Test
+  void columnarParamsAllocateLessThanMapsPerEvent() throws Exception {
+    // Allocations can only be counted on JVMs with HotSpot's extensions.
+    Assumptions.assumeTrue(
+        ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    final byte[] log = Files.readAllBytes(Paths.get("10k.log"));
+    final List<Event> events = new ArrayList<>();
+    EventDecoder.decodeLines(Unpooled.wrappedBuffer(log), "10k", events::add, e -> {});
+
+    Supplier<EventBatch> batches =
+        () -> {
+          // A fresh registry each round, so every round compiles as a brand new session.
+          EventBatch batch = new EventBatch(events.size(), new Sessions());
+          events.forEach(batch::add);
+          for (SessionState session : batch.sessions()) {
+            session.getChains().resume(Chains.NONE, Chains.NONE, Collections.emptyMap());
+          }
+          return batch;
+        };
+
+    double[] maps =
+        measure(
+            events.size(),
+            batches,
+            batch -> {
+              List<Object> rows = new ArrayList<>(batch.size());
+              for (Event event : batch) {
+                rows.add(event.toMap());
+              }
+              return Values.value(Collections.singletonMap("eventList", rows));
+            });
+    double[] columns =
+        measure(
+            events.size(),
+            batches,
+            batch -> {
+              BulkQuery bulk = Cypher.compileBulkEventComponentInsert(batch).block();
+              List<Value> params = new ArrayList<>();
+              for (Query query : bulk.queries) {
+                params.add(query.parameters());
+              }
+              return params;
+            });
+
+    logger.info(
+        String.format(
+            "encoding %d events: maps %.0f ns/%.0f B per event, columns %.0f ns/%.0f B per event",
+            events.size(), maps[0], maps[1], columns[0], columns[1]));
+    Assertions.assertTrue(columns[1] < maps[1]);
+  }
+}
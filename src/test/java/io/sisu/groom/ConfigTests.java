@@ -1,6 +1,7 @@
 package io.sisu.groom;
 
 import io.sisu.groom.exceptions.ConfigException;
+import java.util.Arrays;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -12,14 +13,33 @@ public class ConfigTests {
         new String[] {
           "--" + Config.KEY_UDP_PORT, "12345",
           "--" + Config.KEY_UDP_HOST, "localhost",
+          "--" + Config.KEY_UDP_LISTENERS, "4",
           "--" + Config.KEY_BATCH_SIZE, "999",
           "--" + Config.KEY_WINDOW_TIMEOUT, "99",
+          "--" + Config.KEY_OVERFLOW_POLICY, "drop-by-type",
+          "--" + Config.KEY_STATE_BACKLOG, "500",
         };
     Config config = new Config(args);
     Assertions.assertEquals(config.udpHost, "localhost");
     Assertions.assertEquals(config.udpPort, 12345);
+    Assertions.assertEquals(config.udpListeners, 4);
     Assertions.assertEquals(config.bufferSize, 999);
     Assertions.assertEquals(config.flushInterval, 99);
+    Assertions.assertEquals(config.overflowPolicy, Handoff.Overflow.DROP_BY_TYPE);
+    Assertions.assertEquals(config.stateBacklog, 500);
+  }
+
+  @Test
+  public void parsesTheIngestCommand() {
+    Config config =
+        new Config(
+            new String[] {
+              Config.COMMAND_INGEST, "--" + Config.KEY_INGEST_THREADS, "3", "a.log", "b.log"
+            });
+    Assertions.assertTrue(config.ingest);
+    Assertions.assertEquals(config.ingestThreads, 3);
+    Assertions.assertEquals(config.ingestFiles, Arrays.asList("a.log", "b.log"));
+    Assertions.assertFalse(new Config(new String[] {}).ingest);
   }
 
   @Test
@@ -30,5 +50,14 @@ public class ConfigTests {
     Assertions.assertThrows(
         ConfigException.class,
         () -> new Config(new String[] {"--" + Config.KEY_WINDOW_TIMEOUT, "-1"}));
+    Assertions.assertThrows(
+        ConfigException.class,
+        () -> new Config(new String[] {"--" + Config.KEY_UDP_LISTENERS, "0"}));
+    Assertions.assertThrows(
+        ConfigException.class,
+        () -> new Config(new String[] {"--" + Config.KEY_QUEUE_SIZE, "100"}));
+    Assertions.assertThrows(
+        ConfigException.class,
+        () -> new Config(new String[] {"--" + Config.KEY_STATE_INTERVAL, "0"}));
   }
 }
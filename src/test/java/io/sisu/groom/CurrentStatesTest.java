@@ -0,0 +1,116 @@
+package io.sisu.groom;
+
+import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.Events;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+
+public class CurrentStatesTest {
+
+  static Event move(long actor, int counter) {
+    return Events.move("abc", counter, 100 + counter, actor, counter);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void onlyTouchedActorsAreMoved() {
+    EventBatch batch = new EventBatch(4);
+    batch.add(move(1, 1));
+    batch.add(move(2, 2));
+    batch.add(move(1, 3));
+
+    CurrentStates currentStates = new CurrentStates();
+    currentStates.stored(CurrentStates.touched(batch));
+    Assertions.assertEquals(2, currentStates.size());
+
+    List<Query> queries = currentStates.drain();
+    Assertions.assertEquals(1, queries.size());
+    Query query = queries.get(0);
+    Assertions.assertEquals("abc", query.parameters().get("session").asString());
+    List<Object> actors =
+        query.parameters().get(Cypher.CURRENT_STATE_PARAM).asList(value -> value.asObject());
+    Assertions.assertEquals(2, actors.size());
+    for (Object actor : actors) {
+      Map<String, Object> row = (Map<String, Object>) actor;
+      Assertions.assertEquals("1".equals(row.get("id")) ? 3L : 2L, row.get("counter"));
+    }
+
+    // Nothing new has been stored since.
+    Assertions.assertTrue(currentStates.drain().isEmpty());
+  }
+
+  @Test
+  void keepsTheNewestStateAcrossBatches() {
+    EventBatch first = new EventBatch(4);
+    first.add(move(1, 1));
+    EventBatch second = new EventBatch(4);
+    second.add(move(1, 7));
+
+    CurrentStates currentStates = new CurrentStates();
+    Map<CurrentStates.ActorKey, Integer> older = CurrentStates.touched(first);
+    currentStates.stored(CurrentStates.touched(second));
+    currentStates.stored(older);
+
+    Map<String, Object> row =
+        currentStates
+            .drain()
+            .get(0)
+            .parameters()
+            .get(Cypher.CURRENT_STATE_PARAM)
+            .get(0)
+            .asMap();
+    Assertions.assertEquals(7L, row.get("counter"));
+  }
+
+  @Test
+  void failedMovesAreRetriedWithoutLosingNewerStates() {
+    EventBatch first = new EventBatch(4);
+    first.add(move(1, 1));
+    first.add(move(2, 2));
+    EventBatch second = new EventBatch(4);
+    second.add(move(1, 7));
+
+    CurrentStates currentStates = new CurrentStates();
+    currentStates.stored(CurrentStates.touched(first));
+    List<Query> queries = currentStates.drain();
+    currentStates.stored(CurrentStates.touched(second));
+    queries.forEach(currentStates::failed);
+    Assertions.assertEquals(2, currentStates.size());
+
+    Map<String, Integer> counters = new HashMap<>();
+    for (Value row :
+        currentStates.drain().get(0).parameters().get(Cypher.CURRENT_STATE_PARAM).values()) {
+      counters.put(row.get("id").asString(), row.get("counter").asInt());
+    }
+    Assertions.assertEquals(7, (int) counters.get("1"));
+    Assertions.assertEquals(2, (int) counters.get("2"));
+  }
+
+  @Test
+  void eachSessionIsMovedOnItsOwn() {
+    EventBatch batch = new EventBatch(4);
+    batch.add(move(1, 1));
+    batch.add(Events.move("def", 1, 101, 1, 1));
+
+    CurrentStates currentStates = new CurrentStates();
+    currentStates.stored(CurrentStates.touched(batch));
+    Assertions.assertEquals(2, currentStates.size());
+
+    Set<String> sessions = new HashSet<>();
+    for (Query query : currentStates.drain()) {
+      Assertions.assertEquals(
+          1, query.parameters().get(Cypher.CURRENT_STATE_PARAM).size(), "one actor per session");
+      sessions.add(query.parameters().get("session").asString());
+    }
+    Assertions.assertEquals(new HashSet<>(Arrays.asList("abc", "def")), sessions);
+  }
+}
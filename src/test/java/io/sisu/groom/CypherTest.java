@@ -0,0 +1,117 @@
+package io.sisu.groom;
+
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.EventDecoder;
+import io.sisu.groom.events.Events;
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import io.sisu.util.BulkQuery;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Query;
+
+public class CypherTest {
+
+  @Test
+  void batchesAreDeduplicatedIntoOneListPerStage() throws Exception {
+    EventBatch batch = new EventBatch(10_000, new Sessions());
+    EventDecoder.decodeLines(
+        Unpooled.wrappedBuffer(Files.readAllBytes(Paths.get("10k.log"))),
+        "10k",
+        batch::add,
+        e -> {});
+    for (SessionState session : batch.sessions()) {
+      session.getChains().resume(Chains.NONE, Chains.NONE, Collections.emptyMap());
+    }
+
+    BulkQuery bulk = Cypher.compileBulkEventComponentInsert(batch).block();
+    Map<String, Integer> rows = rows(bulk);
+
+    Assertions.assertEquals(9999, bulk.size);
+    Assertions.assertEquals(9999, rows.get(Cypher.Stage.EVENTS.cypher));
+    Assertions.assertEquals(9999, rows.get(Cypher.Stage.OCCURRED_AT.cypher));
+    Assertions.assertEquals(9998, rows.get(Cypher.Stage.PREV_EVENT.cypher));
+
+    // Each frame, actor and subsector shows up once, however many events refer to it.
+    final int frames = rows.get(Cypher.Stage.NEW_FRAMES.cypher);
+    Assertions.assertTrue(frames < 2000);
+    Assertions.assertEquals(frames - 1, rows.get(Cypher.Stage.PREV_FRAME.cypher));
+    Assertions.assertEquals(
+        batch.sessionState(0).getActors().size(),
+        rows.get(Cypher.Stage.NEW_PLAYERS.cypher) + rows.get(Cypher.Stage.NEW_ENEMIES.cypher));
+    Assertions.assertEquals(
+        batch.sessionState(0).getActors().size(), rows.get(Cypher.Stage.INITIAL_STATE.cypher));
+    Assertions.assertEquals(
+        batch.sessionState(0).getSubsectors().size(),
+        rows.get(Cypher.Stage.NEW_SUBSECTORS.cypher));
+    Assertions.assertNull(rows.get(Cypher.Stage.SEEN_FRAMES.cypher));
+    Assertions.assertNull(rows.get(Cypher.Stage.SEEN_SUBSECTORS.cypher));
+  }
+
+  /** @return the number of rows of each stage, by the stage's Cypher */
+  private static Map<String, Integer> rows(BulkQuery bulk) {
+    Map<String, Integer> rows = new HashMap<>();
+    for (Cypher.Stage stage : Cypher.Stage.values()) {
+      for (Query query : bulk.queries) {
+        if (query.text().equals(stage.cypher)) {
+          rows.put(stage.cypher, query.parameters().get(stage.columns[0]).size());
+        }
+      }
+    }
+    return rows;
+  }
+
+  @Test
+  void batchesAfterALostOneLinkToWhatWasStored() {
+    Sessions sessions = new Sessions();
+    EventBatch lost = new EventBatch(4, sessions);
+    lost.add(Events.move("abc", 1, 172, Events.PLAYER, 1));
+    lost.add(Events.move("abc", 2, 173, Events.PLAYER, 2));
+    // Already batched when the first batch is given up on.
+    EventBatch next = new EventBatch(4, sessions);
+    next.add(Events.move("abc", 3, 173, Events.PLAYER, 3));
+    next.add(Events.move("abc", 4, 174, Events.PLAYER, 4));
+
+    SessionState session = lost.sessionState(0);
+    session.getChains().resume(Chains.NONE, Chains.NONE, Collections.emptyMap());
+    Cypher.compileBulkEventComponentInsert(lost).block();
+    lost.spans().forEach(SessionState::lose);
+    Assertions.assertFalse(session.getChains().isResumed());
+
+    // Nothing made it into the database, so everything starts over with the next batch.
+    session.getChains().resume(Chains.NONE, Chains.NONE, Collections.emptyMap());
+    Map<String, Integer> rows = rows(Cypher.compileBulkEventComponentInsert(next).block());
+    Assertions.assertEquals(1, rows.get(Cypher.Stage.PREV_EVENT.cypher));
+    Assertions.assertEquals(2, rows.get(Cypher.Stage.NEW_FRAMES.cypher));
+    Assertions.assertEquals(1, rows.get(Cypher.Stage.PREV_FRAME.cypher));
+    Assertions.assertEquals(1, rows.get(Cypher.Stage.NEW_PLAYERS.cypher));
+    Assertions.assertEquals(1, rows.get(Cypher.Stage.INITIAL_STATE.cypher));
+    Assertions.assertEquals(1, rows.get(Cypher.Stage.PREV_STATE.cypher));
+    Assertions.assertEquals(1, rows.get(Cypher.Stage.NEW_SUBSECTORS.cypher));
+  }
+
+  @Test
+  void actorIdsAreWrittenAsStrings() {
+    EventBatch batch = new EventBatch(1, new Sessions());
+    batch.add(Events.move("abc", 1, 172, Events.PLAYER, 1));
+    batch.sessionState(0).getChains().resume(Chains.NONE, Chains.NONE, Collections.emptyMap());
+
+    // Graphs have always held them as strings, so they have to keep matching.
+    int checked = 0;
+    for (Query query : Cypher.compileBulkEventComponentInsert(batch).block().queries) {
+      if (query.text().equals(Cypher.Stage.PLAYER_STATES.cypher)
+          || query.text().equals(Cypher.Stage.ACTOR_IN.cypher)) {
+        Assertions.assertEquals("4567120880", query.parameters().get("id").get(0).asString());
+        checked++;
+      }
+    }
+    Assertions.assertEquals(2, checked);
+  }
+}
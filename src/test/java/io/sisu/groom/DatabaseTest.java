@@ -1,11 +1,10 @@
 package io.sisu.groom;
 
 import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventBatch;
 import io.sisu.util.BulkQuery;
 import java.time.Duration;
 import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
@@ -24,12 +23,16 @@ public class DatabaseTest {
   @Disabled
   void testThreading() {
     Database db = new Database(new Config(new String[]{}), "neo4j", "password");
-    List<Event> events =
-        Arrays.asList(json1, json2, json3, json4).stream()
-            .map(Event::fromJson)
-            .collect(Collectors.toList());
+    EventBatch events = new EventBatch(4);
+    Arrays.asList(json1, json2, json3, json4).stream()
+        .map(Event::fromJson)
+        .forEach(events::add);
     BulkQuery q = Cypher.compileBulkEventComponentInsert(events).block();
-    db.write(q).block(Duration.ofSeconds(5));
-    db.write(Cypher.THREADING_QUERIES).block(Duration.ofSeconds(10));
+    try (BatchWriter writer = new BatchWriter(db)) {
+      writer.write(q).block(Duration.ofSeconds(5));
+    }
+    CurrentStates currentStates = new CurrentStates();
+    currentStates.stored(CurrentStates.touched(events));
+    db.write(currentStates.drain()).block(Duration.ofSeconds(10));
   }
 }
@@ -0,0 +1,55 @@
+package io.sisu.groom;
+
+import io.sisu.groom.events.Event;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileIngestTest {
+
+  @Test
+  void keepsFileOrderAcrossParallelChunks() throws Exception {
+    List<Event> events = new ArrayList<>();
+
+    // Tiny chunks so lines get split across many of them
+    try (FileIngest ingest = new FileIngest(4, null, 4096)) {
+      ingest.ingest(Collections.singletonList(Paths.get("10k.log")), events::add);
+      // One recorded "hit" event is missing its actor
+      Assertions.assertEquals(9_999, ingest.events());
+      Assertions.assertEquals(1, ingest.invalid());
+    }
+
+    Assertions.assertEquals(9_999, events.size());
+    for (int i = 1; i < events.size(); i++) {
+      Assertions.assertTrue(events.get(i - 1).getCounter() < events.get(i).getCounter());
+      Assertions.assertEquals("10k", events.get(i).getSession());
+    }
+  }
+
+  @Test
+  void skipsInvalidLinesAndHandlesAMissingTrailingNewline(@TempDir Path dir) throws Exception {
+    List<String> lines = Files.readAllLines(Paths.get("10k.log"), StandardCharsets.UTF_8);
+    Path file = dir.resolve("partial.log");
+    Files.write(
+        file,
+        String.join("\n", Arrays.asList(lines.get(0), "{\"garbage\": true}", lines.get(1)))
+            .getBytes(StandardCharsets.UTF_8));
+
+    List<Event> events = new ArrayList<>();
+    try (FileIngest ingest = new FileIngest(2, "e1m5", 64)) {
+      ingest.ingest(Collections.singletonList(file), events::add);
+      Assertions.assertEquals(1, ingest.invalid());
+    }
+    Assertions.assertEquals(2, events.size());
+    Assertions.assertEquals("e1m5", events.get(1).getSession());
+    Assertions.assertEquals(1, events.get(1).getCounter());
+  }
+}
@@ -0,0 +1,42 @@
+package io.sisu.groom;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.driver.exceptions.TransientException;
+import reactor.core.publisher.Mono;
+
+public class GroomApplicationTest {
+
+  /** @return a write that fails with the given error the first time it's tried */
+  private static Mono<Integer> failingOnce(RuntimeException error, AtomicInteger attempts) {
+    return Mono.fromCallable(
+        () -> {
+          if (attempts.getAndIncrement() == 0) {
+            throw error;
+          }
+          return 42;
+        });
+  }
+
+  @Test
+  void retriesTransientFailures() {
+    AtomicInteger attempts = new AtomicInteger();
+    Mono<Integer> write =
+        failingOnce(new TransientException("Neo.TransientError.Test", "busy"), attempts);
+    Assertions.assertEquals(42, GroomApplication.retrying(write).block(Duration.ofSeconds(5)));
+    Assertions.assertEquals(2, attempts.get());
+  }
+
+  @Test
+  void failsOnAnythingElse() {
+    AtomicInteger attempts = new AtomicInteger();
+    Mono<Integer> write =
+        failingOnce(new ClientException("Neo.ClientError.Statement.SyntaxError", "bad"), attempts);
+    Assertions.assertThrows(
+        ClientException.class, () -> GroomApplication.retrying(write).block(Duration.ofSeconds(5)));
+    Assertions.assertEquals(1, attempts.get());
+  }
+}
@@ -0,0 +1,234 @@
+package io.sisu.groom;
+
+import io.sisu.groom.events.Event;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.Events;
+import io.sisu.groom.events.OffHeapEventBuffer;
+import io.sisu.groom.events.ReorderBuffer;
+import io.sisu.groom.events.SpoolPosition;
+import io.sisu.groom.sessions.Sessions;
+import io.sisu.util.RingBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HandoffTest {
+
+  static Event event(String type, int counter) {
+    return Events.event("abc", type, counter, 172, Events.PLAYER, 1);
+  }
+
+  @Test
+  void dropNewestKeepsTheOldest() {
+    Handoff handoff = new Handoff(new RingBuffer<>(4), Handoff.Overflow.DROP_NEWEST);
+    for (int i = 0; i < 6; i++) {
+      Assertions.assertEquals(i < 4, handoff.offer(event("move", i)));
+    }
+    Assertions.assertEquals(4, handoff.depth());
+  }
+
+  @Test
+  void dropOldestKeepsTheNewest() {
+    RingBuffer<Event> ring = new RingBuffer<>(4);
+    Handoff handoff = new Handoff(ring, Handoff.Overflow.DROP_OLDEST);
+    for (int i = 0; i < 6; i++) {
+      Assertions.assertTrue(handoff.offer(event("move", i)));
+    }
+    Assertions.assertEquals(2, ring.poll().getCounter());
+  }
+
+  @Test
+  void dropByTypeSavesRoomForImportantEvents() {
+    Handoff handoff = new Handoff(new RingBuffer<>(8), Handoff.Overflow.DROP_BY_TYPE);
+    for (int i = 0; i < 8; i++) {
+      handoff.offer(event("move", i));
+    }
+    Assertions.assertEquals(6, handoff.depth());
+    Assertions.assertTrue(handoff.offer(event("killed", 8)));
+    Assertions.assertTrue(handoff.offer(event("killed", 9)));
+    Assertions.assertFalse(handoff.offer(event("killed", 10)));
+  }
+
+  @Test
+  void drainsIntoBatches() {
+    Sessions sessions = new Sessions();
+    Handoff handoff =
+        new Handoff(new OffHeapEventBuffer(64, sessions), Handoff.Overflow.DROP_NEWEST);
+    EventBatch.Pool pool = new EventBatch.Pool(4, sessions);
+    for (int i = 0; i < 10; i++) {
+      handoff.offer(event("move", i));
+    }
+    handoff.close();
+
+    List<List<Integer>> batches =
+        handoff
+            .batches(pool, 4, Duration.ofSeconds(30))
+            .map(
+                batch -> {
+                  List<Integer> counters =
+                      batch.stream().map(Event::getCounter).collect(Collectors.toList());
+                  pool.release(batch);
+                  return counters;
+                })
+            .collectList()
+            .block(Duration.ofSeconds(5));
+
+    Assertions.assertEquals(3, batches.size());
+    Assertions.assertEquals(4, batches.get(0).size());
+    Assertions.assertEquals(9, batches.get(2).get(1));
+  }
+
+  static Event event(String session, int counter, long spoolPosition) {
+    Event event = event("move", counter);
+    event.setSession(session);
+    event.setSpoolPosition(spoolPosition);
+    return event;
+  }
+
+  /** @return just the given position, at the index of its spool stream */
+  static long[] at(long spoolPosition) {
+    long[] positions = new long[SpoolPosition.MAX_STREAMS];
+    positions[SpoolPosition.stream(spoolPosition)] = spoolPosition;
+    return positions;
+  }
+
+  @Test
+  void pinsSessionsToLanes() {
+    Sessions sessions = new Sessions();
+    Handoff handoff =
+        new Handoff(
+            sessions,
+            Arrays.asList(new RingBuffer<>(8), new RingBuffer<>(8)),
+            Handoff.Overflow.DROP_NEWEST,
+            Arrays.asList(null, null));
+    EventBatch.Pool pool = new EventBatch.Pool(4, sessions);
+    for (int i = 0; i < 6; i++) {
+      handoff.offer(event(i % 2 == 0 ? "a" : "b", i, 0));
+    }
+    handoff.close();
+
+    for (int lane = 0; lane < handoff.lanes(); lane++) {
+      EventBatch batch =
+          handoff
+              .batches(lane, pool, BatchController.fixed(4, Duration.ofSeconds(30)))
+              .blockFirst();
+      Assertions.assertEquals(3, batch.size());
+      Assertions.assertEquals(1, batch.sessions().size());
+      Assertions.assertEquals(lane, batch.sessionState(0).getId());
+    }
+  }
+
+  @Test
+  void spoolCommitsWaitForTheSlowestLane() {
+    Sessions sessions = new Sessions();
+    Handoff handoff =
+        new Handoff(
+            sessions,
+            Arrays.asList(new RingBuffer<>(8), new RingBuffer<>(8)),
+            Handoff.Overflow.DROP_NEWEST,
+            Arrays.asList(null, null));
+    handoff.offer(event("a", 0, 10));
+    handoff.offer(event("b", 1, 20));
+    handoff.offer(event("a", 2, 30));
+
+    handoff.stored(1, at(20), at(20));
+    Assertions.assertEquals(0, handoff.storedSpoolPosition(0));
+    handoff.stored(0, at(10), at(10));
+    Assertions.assertEquals(10, handoff.storedSpoolPosition(0));
+    handoff.stored(0, at(30), at(30));
+    Assertions.assertEquals(30, handoff.storedSpoolPosition(0));
+  }
+
+  @Test
+  void spoolStreamsAreCommittedIndependently() {
+    Handoff handoff = new Handoff(new RingBuffer<>(8), Handoff.Overflow.DROP_NEWEST);
+    final long otherStream = SpoolPosition.of(1, 5);
+    handoff.offer(event("a", 0, otherStream));
+    handoff.offer(event("b", 0, 10));
+
+    // A later position in one stream says nothing about what was spooled to another.
+    handoff.stored(0, at(10), at(10));
+    long[] positions = handoff.storedSpoolPositions();
+    Assertions.assertEquals(10, positions[0]);
+    Assertions.assertEquals(0, positions[1]);
+
+    handoff.stored(0, at(otherStream), at(otherStream));
+    Assertions.assertEquals(otherStream, handoff.storedSpoolPositions()[1]);
+  }
+
+  @Test
+  void spoolCommitsStopShortOfBatchesGivenUpOn() {
+    Handoff handoff = new Handoff(new RingBuffer<>(8), Handoff.Overflow.DROP_NEWEST);
+    handoff.offer(event("a", 0, 10));
+    handoff.offer(event("a", 1, 20));
+    handoff.offer(event("a", 2, 30));
+
+    handoff.stored(0, at(10), at(10));
+    handoff.deadLettered(0, at(20));
+    handoff.stored(0, at(30), at(30));
+    Assertions.assertEquals(19, handoff.storedSpoolPosition(0));
+  }
+
+  @Test
+  void spoolCommitsWaitForReorderedEvents() {
+    Sessions sessions = new Sessions();
+    Handoff handoff =
+        new Handoff(
+            sessions,
+            Collections.singletonList(new RingBuffer<>(8)),
+            Handoff.Overflow.DROP_NEWEST,
+            Collections.singletonList(
+                new ReorderBuffer(sessions, TimeUnit.MINUTES.toNanos(1), 16)),
+            Collections.singletonList(null));
+    EventBatch.Pool pool = new EventBatch.Pool(2, sessions);
+    handoff.offer(event("a", 1, 100));
+    handoff.offer(event("a", 3, 200)); // Held, waiting for 2
+    handoff.offer(event("b", 1, 300));
+
+    Iterator<EventBatch> batches =
+        handoff
+            .batches(0, pool, BatchController.fixed(2, Duration.ofSeconds(30)))
+            .toIterable(1)
+            .iterator();
+    EventBatch first = batches.next();
+    Assertions.assertEquals(2, first.size());
+    handoff.stored(0, first.oldestSpoolPositions(), first.spoolPositions());
+    Assertions.assertEquals(199, handoff.storedSpoolPosition(0));
+
+    // Once released, it still holds commits back until its batch is stored.
+    handoff.close();
+    EventBatch second = batches.next();
+    Assertions.assertEquals(3, second.get(0).getCounter());
+    Assertions.assertEquals(199, handoff.storedSpoolPosition(0));
+    handoff.stored(0, second.oldestSpoolPositions(), second.spoolPositions());
+    Assertions.assertEquals(300, handoff.storedSpoolPosition(0));
+  }
+
+  @Test
+  void batchesKnowWhenTheirOldestEventArrived() {
+    Sessions sessions = new Sessions();
+    Handoff handoff =
+        new Handoff(new OffHeapEventBuffer(8, sessions), Handoff.Overflow.DROP_NEWEST);
+    EventBatch.Pool pool = new EventBatch.Pool(4, sessions);
+    for (int i = 0; i < 3; i++) {
+      Event event = event("move", i);
+      event.setReceivedNanos(1_000 - i);
+      handoff.offer(event);
+    }
+    handoff.close();
+
+    EventBatch batch =
+        handoff.batches(pool, 4, Duration.ofSeconds(30)).blockFirst(Duration.ofSeconds(5));
+    Assertions.assertEquals(998, batch.receivedNanos());
+    Assertions.assertNotEquals(0, batch.handedOffNanos());
+
+    pool.release(batch);
+    Assertions.assertEquals(0, batch.receivedNanos());
+  }
+}
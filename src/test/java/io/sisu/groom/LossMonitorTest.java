@@ -0,0 +1,81 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LossMonitorTest {
+
+  @Test
+  void tellsMissingLateAndDuplicateApart() {
+    LossMonitor monitor = new LossMonitor(Duration.ZERO, Duration.ofHours(1));
+    LossMonitor.Sequence s = monitor.sequence("abc");
+    for (int counter : new int[] {1, 2, 5, 6, 3, 6, 9}) {
+      s.record(counter);
+    }
+
+    // 4, 7 and 8 never showed up; 3 came late and the second 6 was a repeat.
+    Assertions.assertEquals(6, s.received());
+    Assertions.assertEquals(3, s.missing());
+    Assertions.assertEquals(1, s.late());
+    Assertions.assertEquals(1, s.duplicates());
+    Assertions.assertEquals(3 / 9.0, s.lossRatio(), 1e-9);
+
+    // Sessions are accounted separately.
+    Assertions.assertEquals(0, monitor.sequence("def").received());
+  }
+
+  @Test
+  void forgetsCountersOnceOutOfTheWindow() {
+    LossMonitor.Sequence s = new LossMonitor(Duration.ZERO, Duration.ofHours(1)).sequence("abc");
+    s.record(1);
+    s.record(1 + LossMonitor.WINDOW);
+    s.record(2 + LossMonitor.WINDOW);
+
+    // The window wraps around, but skipped counters are cleared, so this is late, not a repeat.
+    s.record(1 + 2 * LossMonitor.WINDOW);
+    s.record(3 + LossMonitor.WINDOW);
+    Assertions.assertEquals(0, s.duplicates());
+    Assertions.assertEquals(1, s.late());
+
+    // Too old to tell, so taken as late.
+    s.record(1);
+    Assertions.assertEquals(2, s.late());
+    Assertions.assertEquals(0, s.duplicates());
+  }
+
+  @Test
+  void forgetsIdleSessionsAndTheirMetrics() {
+    PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    Metrics.addRegistry(registry);
+    LossMonitor monitor = new LossMonitor(Duration.ZERO, Duration.ofHours(1));
+    try {
+      monitor.sequence("idle").record(1);
+      monitor.sequence("busy").record(1);
+      Assertions.assertTrue(registry.scrape().contains("session=\"idle\""));
+
+      // Both were heard from since the last sweep, so both stay.
+      monitor.evictIdle();
+      monitor.sequence("busy").record(2);
+      monitor.evictIdle();
+
+      String scraped = registry.scrape();
+      Assertions.assertFalse(scraped.contains("session=\"idle\""), scraped);
+      Assertions.assertTrue(
+          scraped.contains("session_events_received_total{session=\"busy\",} 2.0"), scraped);
+
+      // Heard from again, it starts over.
+      LossMonitor.Sequence s = monitor.sequence("idle");
+      s.record(7);
+      Assertions.assertEquals(1, s.received());
+      Assertions.assertTrue(
+          registry.scrape().contains("session_events_received_total{session=\"idle\",} 1.0"));
+    } finally {
+      monitor.close();
+      Metrics.removeRegistry(registry);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package io.sisu.groom;
+
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.events.EventBatch;
+import io.sisu.groom.events.EventDecoder;
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.SessionState;
+import io.sisu.groom.sessions.Sessions;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Query;
+
+public class MemoryGraphSinkTest {
+
+  static EventBatch load(Sessions sessions) throws Exception {
+    EventBatch batch = new EventBatch(10_000, sessions);
+    EventDecoder.decodeLines(
+        Unpooled.wrappedBuffer(Files.readAllBytes(Paths.get("10k.log"))),
+        "10k",
+        batch::add,
+        e -> {});
+    return batch;
+  }
+
+  @Test
+  void storesTheSameGraphAsNeo4j() throws Exception {
+    MemoryGraphSink sink = new MemoryGraphSink();
+    EventBatch batch = load(new Sessions());
+    for (SessionState session : batch.sessions()) {
+      sink.resume(session).block();
+    }
+    CurrentStates currentStates = new CurrentStates();
+    currentStates.stored(CurrentStates.touched(batch));
+
+    Assertions.assertEquals(
+        9999, sink.write(0, Cypher.compileBulkEventComponentInsert(batch).block()).block());
+    Assertions.assertEquals(0, sink.duplicates());
+
+    MemoryGraphSink.Graph graph = sink.graph("10k");
+    Assertions.assertEquals(9999, graph.events.size());
+    Assertions.assertEquals(1348, graph.frames.size());
+    Assertions.assertEquals(50, graph.actors.size());
+    Assertions.assertEquals(48, graph.subsectors.size());
+
+    // Every event is chained to the one before it and tied to its frame.
+    int unlinked = 0;
+    for (MemoryGraphSink.Event event : graph.events.values()) {
+      Assertions.assertNotNull(event.occurredAt);
+      unlinked += event.prevEvent == null ? 1 : 0;
+    }
+    Assertions.assertEquals(1, unlinked);
+    for (MemoryGraphSink.Actor actor : graph.actors.values()) {
+      Assertions.assertNotNull(actor.initialState);
+      Assertions.assertNull(actor.currentState);
+    }
+
+    for (Query query : currentStates.drain()) {
+      sink.moveCurrentStates(query).block();
+    }
+    for (MemoryGraphSink.Actor actor : graph.actors.values()) {
+      MemoryGraphSink.State state = actor.currentState;
+      Assertions.assertNotNull(state);
+      // Walking back from the current state ends at the initial one.
+      while (state.prevState != null) {
+        state = state.prevState;
+      }
+      Assertions.assertSame(actor.initialState, state);
+    }
+  }
+
+  @Test
+  void resumesWhereTheGraphLeftOff() throws Exception {
+    MemoryGraphSink sink = new MemoryGraphSink();
+    EventBatch batch = load(new Sessions());
+    for (SessionState session : batch.sessions()) {
+      sink.resume(session).block();
+    }
+    sink.write(0, Cypher.compileBulkEventComponentInsert(batch).block()).block();
+
+    // As if restarted, with nothing known about the session.
+    SessionState session = new Sessions().get("10k");
+    sink.resume(session).block();
+    Chains chains = session.getChains();
+    int lastCounter = Chains.NONE;
+    for (int row = 0; row < batch.size(); row++) {
+      lastCounter = Math.max(lastCounter, batch.counter(row));
+    }
+    Assertions.assertEquals(lastCounter, chains.resumedEvent());
+    Assertions.assertNotEquals(Chains.NONE, chains.resumedFrame());
+    Assertions.assertNotEquals(Chains.NONE, chains.resumedState(batch.actor().id(0)));
+  }
+}
@@ -0,0 +1,110 @@
+package io.sisu.groom;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.events.SpoolPosition;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpoolTest {
+
+  static ByteBuf datagram(String s) {
+    return Unpooled.copiedBuffer(s, StandardCharsets.UTF_8);
+  }
+
+  static List<String> replay(Spool spool) throws Exception {
+    List<String> replayed = new ArrayList<>();
+    spool.replay((buf, position) -> replayed.add(buf.toString(StandardCharsets.UTF_8)));
+    return replayed;
+  }
+
+  @Test
+  void replaysOnlyWhatWasNotCommitted(@TempDir Path dir) throws Exception {
+    try (Spool spool = new Spool(dir, 1024, 1)) {
+      Spool.Stream stream = spool.stream(0);
+      stream.append(datagram("one"));
+      long second = stream.append(datagram("two"));
+      stream.append(datagram("three"));
+      stream.commit(second);
+    }
+
+    try (Spool spool = new Spool(dir, 1024, 1)) {
+      Assertions.assertEquals(1, spool.replay((buf, position) -> {}));
+      Assertions.assertEquals("three", replay(spool).get(0));
+    }
+  }
+
+  @Test
+  void appendLeavesTheDatagramReadable(@TempDir Path dir) throws Exception {
+    try (Spool spool = new Spool(dir, 1024, 1)) {
+      ByteBuf buf = datagram("hello");
+      Assertions.assertTrue(spool.stream(0).append(buf) > 0);
+      Assertions.assertEquals("hello", buf.toString(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  void rollsSegmentsAndCleansUpCommittedOnes(@TempDir Path dir) throws Exception {
+    long last = 0;
+    try (Spool spool = new Spool(dir, 64, 1)) {
+      for (int i = 0; i < 10; i++) {
+        last = spool.stream(0).append(datagram("datagram-" + i));
+      }
+      Assertions.assertTrue(segments(dir) > 1);
+    }
+
+    try (Spool spool = new Spool(dir, 64, 1)) {
+      Assertions.assertEquals(10, replay(spool).size());
+      Assertions.assertEquals("datagram-0", replay(spool).get(0));
+
+      long before = segments(dir);
+      spool.stream(0).commit(last);
+      Assertions.assertTrue(segments(dir) < before);
+      Assertions.assertTrue(replay(spool).isEmpty());
+    }
+  }
+
+  @Test
+  void rejectsDatagramsLargerThanASegment(@TempDir Path dir) throws Exception {
+    try (Spool spool = new Spool(dir, 16, 1)) {
+      Assertions.assertEquals(0, spool.stream(0).append(datagram("this will never fit")));
+    }
+  }
+
+  @Test
+  void streamsAreCommittedAndReplayedOnTheirOwn(@TempDir Path dir) throws Exception {
+    try (Spool spool = new Spool(dir, 1024, 2)) {
+      long first = spool.stream(0).append(datagram("zero"));
+      long second = spool.stream(1).append(datagram("one"));
+      Assertions.assertEquals(0, SpoolPosition.stream(first));
+      Assertions.assertEquals(1, SpoolPosition.stream(second));
+
+      long[] positions = new long[SpoolPosition.MAX_STREAMS];
+      positions[1] = second;
+      spool.commit(positions);
+      Assertions.assertEquals(0, spool.stream(0).committed());
+      Assertions.assertEquals(second, spool.stream(1).committed());
+    }
+
+    // Streams left behind by a run with more listeners are still replayed.
+    try (Spool spool = new Spool(dir, 1024, 1)) {
+      List<Long> positions = new ArrayList<>();
+      Assertions.assertEquals(1, spool.replay((buf, position) -> positions.add(position)));
+      Assertions.assertEquals(0, SpoolPosition.stream(positions.get(0)));
+      Assertions.assertNotNull(spool.stream(1));
+    }
+  }
+
+  static long segments(Path dir) throws Exception {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return files.filter(p -> p.getFileName().toString().endsWith(".seg")).count();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package io.sisu.groom;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StagesTest {
+
+  @Test
+  void everyStageCanBeScrapedByPrometheus() {
+    PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    Metrics.addRegistry(registry);
+    try {
+      // Prometheus refuses meters of the same name with different tag keys.
+      Stages.timer(Stages.DECODE).record(1, TimeUnit.MILLISECONDS);
+      Stages.timer(Stages.STATE).record(1, TimeUnit.MILLISECONDS);
+      for (String stage :
+          new String[] {Stages.BATCH, Stages.WAIT, Stages.COMPILE, Stages.WRITE}) {
+        Stages.timer(stage, 0).record(1, TimeUnit.MILLISECONDS);
+        Stages.timer(stage, 1).record(1, TimeUnit.MILLISECONDS);
+      }
+      Stages.eventAge(0).record(1, TimeUnit.MILLISECONDS);
+
+      String scraped = registry.scrape();
+      Assertions.assertTrue(
+          scraped.contains("stage_latency_seconds_count{lane=\"none\",stage=\"decode\",} 1.0"),
+          scraped);
+      Assertions.assertTrue(
+          scraped.contains("stage_latency_seconds_count{lane=\"1\",stage=\"write\",} 1.0"),
+          scraped);
+      Assertions.assertTrue(scraped.contains("event_age_seconds_count{lane=\"0\",}"), scraped);
+    } finally {
+      Metrics.removeRegistry(registry);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package io.sisu.groom;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StateMaintainerTest {
+
+  @Test
+  void idlePassesStillReportTheirWatermark() throws Exception {
+    AtomicReference<long[]> watermark = new AtomicReference<>(new long[] {10});
+    AtomicReference<long[]> passed = new AtomicReference<>(new long[] {0});
+    // Nothing is pending, so no pass ever needs the database.
+    StateMaintainer maintainer =
+        new StateMaintainer(
+            null, new CurrentStates(), Duration.ZERO, 100, 1, watermark::get, passed::set);
+    maintainer.start();
+
+    long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (passed.get()[0] != 10 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Assertions.assertEquals(10, passed.get()[0]);
+
+    // Closing runs one more pass over whatever was stored in the meantime.
+    watermark.set(new long[] {20});
+    maintainer.close();
+    Assertions.assertEquals(20, passed.get()[0]);
+  }
+}
@@ -0,0 +1,70 @@
+package io.sisu.groom.events;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.exceptions.InvalidEventException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BinaryEventCodecTest {
+  private static final String targeted =
+      "{\"session\": \"abc\", \"counter\": 9, \"type\":\"targeted\",\"frame\":{\"millis\":7315,\"tic\":256},\"actor\":{\"position\":{\"x\":-4194304,\"y\":16777216,\"z\":0,\"angle\":3221225472,\"subsector\":4350048536},\"type\":\"spectre\",\"health\":150,\"id\":4350217592},\"target\":{\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":4350176240}}";
+  private static final String startLevel =
+      "{\"session\": \"abc\", \"level\":{\"episode\":1,\"level\":5,\"difficulty\":3},\"counter\":0,\"type\":\"start_level\",\"frame\":{\"millis\":4920,\"tic\":172},\"actor\":{\"position\":{\"x\":-14680064,\"y\":-40894464,\"z\":0,\"angle\":1073741824,\"subsector\":4566992824},\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":4567120880}}";
+
+  @Test
+  void roundTripThroughBinary() {
+    ByteBuf buf = Unpooled.buffer();
+    BinaryEventCodec.encodeHeader("abc", buf);
+    BinaryEventCodec.encodeRecord(Event.fromJson(startLevel), buf);
+    BinaryEventCodec.encodeRecord(Event.fromJson(targeted), buf);
+    Assertions.assertTrue(buf.readableBytes() < (startLevel.length() + targeted.length()) / 2);
+
+    List<Event> events = new ArrayList<>();
+    List<InvalidEventException> errors = new ArrayList<>();
+    Assertions.assertEquals(2, EventDecoder.decodeDatagram(buf, events::add, errors::add));
+    Assertions.assertTrue(errors.isEmpty());
+    Assertions.assertEquals(0, buf.readerIndex());
+
+    Event first = events.get(0);
+    Assertions.assertEquals("abc", first.getSession());
+    Assertions.assertEquals(Event.Type.START_LEVEL, first.getType());
+    Assertions.assertEquals(172, first.getFrame().getTic());
+    Assertions.assertEquals(3, first.getLevel().get().getDifficulty());
+    Assertions.assertFalse(first.getTarget().isPresent());
+
+    Event second = events.get(1);
+    Assertions.assertEquals(9, second.getCounter());
+    Assertions.assertEquals(Actor.Type.SPECTRE, second.getActor().getType());
+    Assertions.assertEquals(4350217592L, second.getActor().getId());
+    Assertions.assertEquals(3221225472L, second.getActor().getPosition().get().getAngle());
+    Assertions.assertEquals(4350048536L, second.getActor().getPosition().get().getSubsector());
+    Assertions.assertEquals(4350176240L, second.getTarget().get().getId());
+    Assertions.assertFalse(second.getTarget().get().getPosition().isPresent());
+  }
+
+  @Test
+  void truncatedRecordsAreInvalid() {
+    ByteBuf buf = Unpooled.buffer();
+    BinaryEventCodec.encodeHeader("abc", buf);
+    BinaryEventCodec.encodeRecord(Event.fromJson(targeted), buf);
+    BinaryEventCodec.encodeRecord(Event.fromJson(targeted), buf);
+    buf.writerIndex(buf.writerIndex() - 10);
+
+    List<Event> events = new ArrayList<>();
+    List<InvalidEventException> errors = new ArrayList<>();
+    Assertions.assertEquals(1, EventDecoder.decodeDatagram(buf, events::add, errors::add));
+    Assertions.assertEquals(1, errors.size());
+  }
+
+  @Test
+  void jsonIsStillDetected() {
+    ByteBuf buf = Unpooled.copiedBuffer(targeted, StandardCharsets.UTF_8);
+    List<Event> events = new ArrayList<>();
+    Assertions.assertEquals(
+        1, EventDecoder.decodeDatagram(buf, events::add, e -> Assertions.fail(e.getMessage())));
+  }
+}
@@ -0,0 +1,93 @@
+package io.sisu.groom.events;
+
+import io.sisu.groom.sessions.Chains;
+import io.sisu.groom.sessions.Sessions;
+import java.util.Iterator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class EventBatchTest {
+  private static final String targeted =
+      "{\"session\": \"abc\", \"counter\": 9, \"type\":\"targeted\",\"frame\":{\"millis\":7315,\"tic\":256},\"actor\":{\"position\":{\"x\":-4194304,\"y\":16777216,\"z\":0,\"angle\":3221225472,\"subsector\":4350048536},\"type\":\"spectre\",\"health\":150,\"id\":4350217592},\"target\":{\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":4350176240}}";
+  private static final String startLevel =
+      "{\"session\": \"xyz\", \"level\":{\"episode\":1,\"level\":5,\"difficulty\":3},\"counter\":0,\"type\":\"start_level\",\"frame\":{\"millis\":4920,\"tic\":172},\"actor\":{\"position\":{\"x\":-14680064,\"y\":-40894464,\"z\":0,\"angle\":1073741824,\"subsector\":4566992824},\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":4567120880}}";
+
+  @Test
+  void eventsSurviveTheTripThroughColumns() {
+    EventBatch batch = new EventBatch(1);
+    for (int i = 0; i < 40; i++) {
+      batch.add(Event.fromJson(i % 2 == 0 ? targeted : startLevel));
+    }
+    Assertions.assertEquals(40, batch.size());
+    Assertions.assertEquals(2, batch.sessions().size());
+
+    Assertions.assertEquals("abc", batch.session(0));
+    Assertions.assertEquals("TARGETED", batch.typeName(0));
+    Assertions.assertEquals("spectre", batch.actor().typeName(0));
+    Assertions.assertEquals(3221225472L, batch.actor().angle(0));
+    Assertions.assertEquals(4350217592L, batch.actor().id(0));
+    Assertions.assertEquals(0, batch.actor().index(0));
+    Assertions.assertEquals(1, batch.target().index(0));
+    Assertions.assertEquals(-1, batch.target().subsectorIndex(0));
+    Assertions.assertEquals(2, batch.sessionState(0).getActors().size());
+    Assertions.assertTrue(batch.hasTarget(0));
+    Assertions.assertFalse(batch.target().hasPosition(0));
+    Assertions.assertFalse(batch.hasLevel(0));
+
+    Assertions.assertEquals("xyz", batch.session(1));
+    Assertions.assertTrue(batch.actor().isPlayer(1));
+    Assertions.assertFalse(batch.hasTarget(1));
+    Assertions.assertEquals(5, batch.level(1));
+
+    Iterator<Event> it = batch.iterator();
+    Event event = it.next();
+    Assertions.assertEquals(Event.Type.TARGETED, event.getType());
+    Assertions.assertEquals(256, event.getFrame().getTic());
+    Assertions.assertEquals(4350176240L, event.getTarget().get().getId());
+    Assertions.assertEquals(4350048536L, event.getActor().getPosition().get().getSubsector());
+    event = it.next();
+    Assertions.assertEquals(1, event.getLevel().get().getEpisode());
+  }
+
+  @Test
+  void poolHandsBackClearedBatches() {
+    EventBatch.Pool pool = new EventBatch.Pool(8, new Sessions());
+    EventBatch batch = pool.acquire();
+    batch.add(Event.fromJson(targeted));
+    pool.release(batch);
+
+    EventBatch reused = pool.acquire();
+    Assertions.assertSame(batch, reused);
+    Assertions.assertTrue(reused.isEmpty());
+    Assertions.assertTrue(reused.sessions().isEmpty());
+    Assertions.assertNotSame(reused, pool.acquire());
+  }
+
+  @Test
+  void rowsLinkToTheTailsOfTheirChains() {
+    Sessions sessions = new Sessions();
+    EventBatch first = new EventBatch(4, sessions);
+    first.add(Event.fromJson(targeted));
+    first.add(Event.fromJson(targeted.replace("\"counter\": 9", "\"counter\": 10")));
+
+    Assertions.assertEquals(Chains.UNKNOWN, first.prevTic(0));
+    Assertions.assertEquals(Chains.UNKNOWN, first.prevCounter(0));
+    Assertions.assertEquals(Chains.UNKNOWN, first.actor().prevState(0));
+    Assertions.assertEquals(Chains.UNKNOWN, first.target().prevState(0));
+
+    // Same frame, so only the event and states are linked
+    Assertions.assertEquals(Chains.NONE, first.prevTic(1));
+    Assertions.assertEquals(9, first.prevCounter(1));
+    Assertions.assertEquals(9, first.actor().prevState(1));
+    Assertions.assertEquals(9, first.target().prevState(1));
+
+    // Chains carry on into the next batch
+    EventBatch second = new EventBatch(4, sessions);
+    second.add(
+        Event.fromJson(
+            targeted.replace("\"counter\": 9", "\"counter\": 11").replace("256", "257")));
+    Assertions.assertEquals(256, second.prevTic(0));
+    Assertions.assertEquals(10, second.prevCounter(0));
+    Assertions.assertEquals(10, second.actor().prevState(0));
+  }
+}
@@ -1,6 +1,11 @@
 package io.sisu.groom.events;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.sisu.groom.exceptions.InvalidEventException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -23,11 +28,11 @@ public class EventTest {
 
     Actor actor = event.getActor();
     Assertions.assertEquals(Actor.Type.PLAYER, actor.getType());
-    Assertions.assertEquals("4350176240", actor.getId());
+    Assertions.assertEquals(4350176240L, actor.getId());
 
     Actor target = event.getTarget().get();
     Assertions.assertEquals(Actor.Type.BARREL, target.getType());
-    Assertions.assertEquals("4350225776", target.getId());
+    Assertions.assertEquals(4350225776L, target.getId());
 
     Assertions.assertTrue(actor.getPosition().isPresent());
     Position pos = actor.getPosition().get();
@@ -52,11 +57,11 @@ public class EventTest {
 
     Actor actor = event.getActor();
     Assertions.assertEquals(Actor.Type.SPECTRE, actor.getType());
-    Assertions.assertEquals("4350217592", actor.getId());
+    Assertions.assertEquals(4350217592L, actor.getId());
 
     Actor target = event.getTarget().get();
     Assertions.assertEquals(Actor.Type.PLAYER, target.getType());
-    Assertions.assertEquals("4350176240", target.getId());
+    Assertions.assertEquals(4350176240L, target.getId());
 
     Assertions.assertTrue(actor.getPosition().isPresent());
     Position pos = actor.getPosition().get();
@@ -126,4 +131,65 @@ public class EventTest {
     Assertions.assertNotNull(event.getTarget());
     Assertions.assertFalse(event.getTarget().isPresent());
   }
+
+  @Test
+  void decodeStraightFromByteBuf() {
+    final String json =
+        "{\"session\": \"abc\", \"counter\": 7, \"type\":\"start_level\",\"level\":{\"episode\":1,\"level\":5,\"difficulty\":3},\"frame\":{\"millis\":4920,\"tic\":172},\"actor\":{\"position\":{\"x\":-14680064,\"y\":-40894464,\"z\":0,\"angle\":3221225472,\"subsector\":4566992824},\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":4567120880}}";
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+    ByteBuf direct = Unpooled.directBuffer(bytes.length);
+    direct.writeBytes(bytes);
+    ByteBuf heap = Unpooled.wrappedBuffer(bytes);
+
+    for (ByteBuf buf : new ByteBuf[] {direct, heap}) {
+      Event event = EventDecoder.decode(buf);
+      Assertions.assertEquals(0, buf.readerIndex());
+      Assertions.assertEquals(Event.Type.START_LEVEL, event.getType());
+      Assertions.assertEquals(7, event.getCounter());
+      Assertions.assertEquals(172, event.getFrame().getTic());
+      Assertions.assertTrue(event.getLevel().isPresent());
+      Assertions.assertEquals(5, event.getLevel().get().getLevel());
+      Assertions.assertEquals(3221225472L, event.getActor().getPosition().get().getAngle());
+    }
+    direct.release();
+  }
+
+  @Test
+  void invalidByteBufEventsCarryTheirJson() {
+    ByteBuf buf = Unpooled.copiedBuffer("{\"counter\": 0, \"type\": \"move\"}", StandardCharsets.UTF_8);
+    InvalidEventException e =
+        Assertions.assertThrows(InvalidEventException.class, () -> EventDecoder.decode(buf));
+    Assertions.assertTrue(e.toString().contains("\"type\": \"move\""));
+  }
+
+  @Test
+  void unknownEnumValuesAreInvalid() {
+    Assertions.assertThrows(InvalidEventException.class, () ->
+        Event.fromJson(
+            "{\"session\": \"abc\", \"counter\": 0, \"type\": \"DANCE\", \"frame\":{}, \"actor\":{\"type\":\"imp\", \"position\":{}}}"));
+  }
+
+  @Test
+  void decodeNewlineDelimitedDatagrams() {
+    final String good =
+        "{\"session\": \"abc\", \"counter\": %d, \"type\":\"move\",\"frame\":{\"millis\":4920,\"tic\":172},\"actor\":{\"position\":{\"x\":1,\"y\":2,\"z\":0,\"angle\":0,\"subsector\":4566992824},\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":4567120880}}";
+    String datagram =
+        String.format(good, 1) + "\n"
+            + "{\"session\": \"abc\", \"type\": \"move\"}\r\n"
+            + "\n"
+            + String.format(good, 2) + "\r\n"
+            + String.format(good, 3);
+    ByteBuf buf = Unpooled.copiedBuffer(datagram, StandardCharsets.UTF_8);
+
+    List<Event> events = new ArrayList<>();
+    List<InvalidEventException> errors = new ArrayList<>();
+    int decoded = EventDecoder.decodeLines(buf, events::add, errors::add);
+
+    Assertions.assertEquals(3, decoded);
+    Assertions.assertEquals(1, errors.size());
+    Assertions.assertEquals(1, events.get(0).getCounter());
+    Assertions.assertEquals(2, events.get(1).getCounter());
+    Assertions.assertEquals(3, events.get(2).getCounter());
+  }
 }
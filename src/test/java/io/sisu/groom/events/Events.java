@@ -0,0 +1,28 @@
+package io.sisu.groom.events;
+
+/** Events for tests, built from the same JSON groom receives. */
+public class Events {
+  /** Id of the player most test events are about. */
+  public static final long PLAYER = 4567120880L;
+
+  /**
+   * @param session session name
+   * @param type event type, e.g. "move"
+   * @param counter event counter
+   * @param tic tic of the event's frame
+   * @param actor id of the player the event is about
+   * @param x the player's x position, so otherwise alike events can be told apart
+   * @return a new Event
+   */
+  public static Event event(String session, String type, int counter, int tic, long actor, int x) {
+    return Event.fromJson(
+        String.format(
+            "{\"session\": \"%s\", \"counter\": %d, \"type\":\"%s\",\"frame\":{\"millis\":4920,\"tic\":%d},\"actor\":{\"position\":{\"x\":%d,\"y\":2,\"z\":0,\"angle\":0,\"subsector\":4566992824},\"type\":\"player\",\"health\":100,\"armor\":0,\"id\":%d}}",
+            session, counter, type, tic, x, actor));
+  }
+
+  /** @return a new move event, see {@link #event} */
+  public static Event move(String session, int counter, int tic, long actor, int x) {
+    return event(session, "move", counter, tic, actor, x);
+  }
+}
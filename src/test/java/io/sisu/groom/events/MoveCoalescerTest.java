@@ -0,0 +1,99 @@
+package io.sisu.groom.events;
+
+import io.netty.buffer.Unpooled;
+import io.sisu.groom.exceptions.InvalidEventException;
+import io.sisu.groom.sessions.Sessions;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MoveCoalescerTest {
+  private Sessions sessions;
+  private EventBatch batch;
+  private MoveCoalescer coalescer;
+
+  static Event event(String type, int counter, int tic, int x) {
+    return Events.event("abc", type, counter, tic, Events.PLAYER, x);
+  }
+
+  @BeforeEach
+  void setUp() {
+    sessions = new Sessions();
+    batch = new EventBatch(16, sessions);
+    coalescer = new MoveCoalescer(sessions);
+  }
+
+  @Test
+  void mergesMovesWithinATic() {
+    Assertions.assertTrue(coalescer.add(batch, event("move", 0, 172, 1)));
+    Assertions.assertFalse(coalescer.add(batch, event("move", 1, 172, 2)));
+    Assertions.assertFalse(coalescer.add(batch, event("move", 2, 172, 3)));
+
+    Assertions.assertEquals(1, batch.size());
+    Assertions.assertEquals(0, batch.counter(0));
+    Assertions.assertArrayEquals(new int[] {1, 2}, batch.foldedCounters(0));
+    Assertions.assertEquals(3, batch.actor().x(0));
+  }
+
+  @Test
+  void dropsUnchangedMovesIntoTheRowBeforeThem() {
+    Assertions.assertTrue(coalescer.add(batch, event("start_level", 0, 172, 1)));
+    // Unchanged, but there's no move to fold it into.
+    Assertions.assertTrue(coalescer.add(batch, event("move", 1, 173, 1)));
+    Assertions.assertTrue(coalescer.add(batch, event("move", 2, 174, 2)));
+    Assertions.assertFalse(coalescer.add(batch, event("move", 3, 175, 2)));
+    Assertions.assertEquals(3, batch.size());
+    Assertions.assertEquals(0, batch.foldedCounters(0).length);
+    Assertions.assertEquals(0, batch.foldedCounters(1).length);
+    Assertions.assertArrayEquals(new int[] {3}, batch.foldedCounters(2));
+
+    // Nor is there in a new batch, so every counter still ends up in a row.
+    batch.clear();
+    coalescer.nextBatch();
+    Assertions.assertTrue(coalescer.add(batch, event("move", 4, 176, 2)));
+    Assertions.assertFalse(coalescer.add(batch, event("move", 5, 177, 2)));
+    Assertions.assertEquals(1, batch.size());
+    Assertions.assertArrayEquals(new int[] {5}, batch.foldedCounters(0));
+  }
+
+  @Test
+  void foldsPastOtherActorsWithoutClaimingTheirCounters() {
+    final long other = Events.PLAYER + 1;
+    Assertions.assertTrue(coalescer.add(batch, event("move", 0, 172, 1)));
+    Assertions.assertTrue(coalescer.add(batch, Events.event("abc", "move", 1, 172, other, 5)));
+    Assertions.assertFalse(coalescer.add(batch, event("move", 2, 172, 2)));
+    Assertions.assertTrue(coalescer.add(batch, Events.event("abc", "move", 3, 173, other, 6)));
+    Assertions.assertFalse(coalescer.add(batch, event("move", 4, 173, 2)));
+
+    Assertions.assertEquals(3, batch.size());
+    Assertions.assertArrayEquals(new int[] {2, 4}, batch.foldedCounters(0));
+    Assertions.assertEquals(0, batch.foldedCounters(1).length);
+    Assertions.assertEquals(0, batch.foldedCounters(2).length);
+  }
+
+  @Test
+  void otherEventsAreNeverFoldedOver() {
+    Assertions.assertTrue(coalescer.add(batch, event("move", 0, 172, 1)));
+    Assertions.assertTrue(coalescer.add(batch, event("attacked", 1, 172, 1)));
+    Assertions.assertTrue(coalescer.add(batch, event("move", 2, 172, 2)));
+    Assertions.assertTrue(coalescer.add(batch, event("attacked", 3, 172, 2)));
+    Assertions.assertEquals(4, batch.size());
+  }
+
+  @Test
+  void shrinksTheSampleLog() throws Exception {
+    int events = 0;
+    for (String line : Files.readAllLines(Paths.get("10k.log"), StandardCharsets.UTF_8)) {
+      try {
+        coalescer.add(batch, EventDecoder.decode(Unpooled.wrappedBuffer(line.getBytes()), "10k"));
+        events++;
+      } catch (InvalidEventException e) {
+        // the one recorded hit without an actor
+      }
+    }
+    Assertions.assertTrue(batch.size() < events);
+  }
+}
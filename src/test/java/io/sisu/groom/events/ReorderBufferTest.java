@@ -0,0 +1,113 @@
+package io.sisu.groom.events;
+
+import io.sisu.groom.sessions.Sessions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ReorderBufferTest {
+  private static final long HOLD = 1_000;
+
+  private ReorderBuffer reorder;
+
+  static Event event(String session, int counter) {
+    return Events.move(session, counter, 172, Events.PLAYER, 1);
+  }
+
+  @BeforeEach
+  void setUp() {
+    reorder = new ReorderBuffer(new Sessions(), HOLD, 4);
+  }
+
+  /** Add events at the given time, returning the counters of everything released. */
+  private List<Integer> add(long now, Event... events) {
+    List<Integer> released = new ArrayList<>();
+    for (Event event : events) {
+      Event next = reorder.add(event, now);
+      if (next != null) {
+        released.add(next.getCounter());
+      }
+      released.addAll(poll(now));
+    }
+    return released;
+  }
+
+  private List<Integer> poll(long now) {
+    List<Integer> released = new ArrayList<>();
+    Event next;
+    while ((next = reorder.poll(now)) != null) {
+      released.add(next.getCounter());
+    }
+    return released;
+  }
+
+  @Test
+  void releasesEachSessionInCounterOrder() {
+    Assertions.assertEquals(
+        Arrays.asList(1, 2, 3, 4, 5),
+        add(
+            0,
+            event("abc", 1),
+            event("abc", 3),
+            event("abc", 4),
+            event("abc", 2),
+            event("abc", 5)));
+    Assertions.assertEquals(0, reorder.size());
+
+    // Sessions are sequenced independently.
+    Assertions.assertEquals(
+        Arrays.asList(100, 6, 7),
+        add(0, event("abc", 7), event("def", 100), event("abc", 6)));
+  }
+
+  @Test
+  void givesUpOnAGapOnceHeldTooLong() {
+    Assertions.assertEquals(Arrays.asList(1), add(0, event("abc", 1), event("abc", 3)));
+    Assertions.assertEquals(Arrays.asList(), add(HOLD / 2, event("abc", 4)));
+    Assertions.assertEquals(Arrays.asList(), poll(HOLD - 1));
+
+    // 3 has waited long enough; 4 comes out with it, as nothing is missing in between.
+    Assertions.assertEquals(Arrays.asList(3, 4), poll(HOLD));
+
+    // 2 turned up too late to be put back in order.
+    Assertions.assertEquals(Arrays.asList(5), add(HOLD, event("abc", 2), event("abc", 5)));
+  }
+
+  @Test
+  void givesUpOnAGapOnceTooManyAreHeld() {
+    Assertions.assertEquals(
+        Arrays.asList(1),
+        add(
+            0,
+            event("abc", 1),
+            event("abc", 3),
+            event("abc", 4),
+            event("abc", 5),
+            event("abc", 6)));
+    Assertions.assertEquals(4, reorder.size());
+    Assertions.assertEquals(Arrays.asList(3, 4, 5, 6, 7), add(0, event("abc", 7)));
+  }
+
+  @Test
+  void dropsDuplicates() {
+    Assertions.assertEquals(
+        Arrays.asList(1, 2, 3),
+        add(
+            0,
+            event("abc", 1),
+            event("abc", 3),
+            event("abc", 3),
+            event("abc", 1),
+            event("abc", 2)));
+    Assertions.assertEquals(0, reorder.size());
+  }
+
+  @Test
+  void releasesEverythingWhenAsked() {
+    add(0, event("abc", 1), event("abc", 4), event("abc", 3));
+    Assertions.assertEquals(Arrays.asList(3, 4), poll(Long.MAX_VALUE));
+  }
+}
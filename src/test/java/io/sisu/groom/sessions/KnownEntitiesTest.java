@@ -0,0 +1,37 @@
+package io.sisu.groom.sessions;
+
+import io.sisu.groom.sessions.KnownEntities.Write;
+import java.util.Collections;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class KnownEntitiesTest {
+
+  @Test
+  void freshSessionsCreateEverythingOnce() {
+    Chains chains = new Chains();
+    chains.resume(Chains.NONE, Chains.NONE, Collections.emptyMap());
+    KnownEntities known = new KnownEntities(chains);
+
+    Assertions.assertEquals(Write.CREATE, known.frame(10));
+    Assertions.assertEquals(Write.CREATE, known.frame(11));
+    Assertions.assertEquals(Write.CREATE, known.subsector(0));
+    Assertions.assertEquals(Write.MATCH, known.subsector(0));
+    Assertions.assertEquals(Write.CREATE, known.subsector(7));
+  }
+
+  @Test
+  void resumedSessionsMergeWhatTheyCannotBeSureOf() {
+    Chains chains = new Chains();
+    chains.resume(100, 40, Collections.singletonMap(1L, 40));
+    KnownEntities known = new KnownEntities(chains);
+
+    // The tail frame is already there, anything after it isn't.
+    Assertions.assertEquals(Write.MERGE, known.frame(100));
+    Assertions.assertEquals(Write.CREATE, known.frame(101));
+    Assertions.assertEquals(Write.MERGE, known.frame(50));
+
+    Assertions.assertEquals(Write.MERGE, known.subsector(3));
+    Assertions.assertEquals(Write.MATCH, known.subsector(3));
+  }
+}
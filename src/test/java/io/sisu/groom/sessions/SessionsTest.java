@@ -0,0 +1,31 @@
+package io.sisu.groom.sessions;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SessionsTest {
+
+  @Test
+  void sessionsCreatedConcurrentlyGetTheirOwnIds() throws Exception {
+    Sessions sessions = new Sessions();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 1000; i++) {
+      final String name = "session-" + i;
+      pool.execute(() -> sessions.get(name));
+    }
+    pool.shutdown();
+    Assertions.assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+    Set<Integer> ids = new HashSet<>();
+    for (SessionState state : sessions.all()) {
+      Assertions.assertTrue(ids.add(state.getId()), "id " + state.getId() + " given out twice");
+      Assertions.assertSame(state, sessions.get(state.getId()));
+    }
+    Assertions.assertEquals(1000, ids.size());
+  }
+}
@@ -0,0 +1,34 @@
+package io.sisu.util;
+
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Value;
+
+public class ColumnarParamsTest {
+
+  @Test
+  void keepsOneListPerColumn() {
+    ColumnarParams params = new ColumnarParams("id", "counter");
+    params.row().add(1).add(10);
+    params.row().add(2).skip();
+
+    Map<String, Object> columns = params.toParameters();
+    Assertions.assertEquals(2, params.size());
+    Assertions.assertEquals(2, ((Value) columns.get("id")).get(1).asInt());
+    Assertions.assertTrue(((Value) columns.get("counter")).get(1).isNull());
+  }
+
+  @Test
+  void rowsMustHaveEveryColumn() {
+    ColumnarParams params = new ColumnarParams("id", "counter");
+    Assertions.assertThrows(IllegalStateException.class, () -> params.add(1));
+
+    params.row().add(1).add(10);
+    Assertions.assertThrows(IllegalStateException.class, () -> params.add(100));
+
+    params.row().add(2);
+    Assertions.assertThrows(IllegalStateException.class, params::toParameters);
+    Assertions.assertThrows(IllegalStateException.class, params::row);
+  }
+}
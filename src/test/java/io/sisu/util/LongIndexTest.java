@@ -0,0 +1,32 @@
+package io.sisu.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LongIndexTest {
+
+  @Test
+  void indicesAreDenseAndStable() {
+    LongIndex index = new LongIndex(4);
+    Assertions.assertEquals(-1, index.indexOf(4567120880L));
+    Assertions.assertEquals(0, index.index(4567120880L));
+    Assertions.assertEquals(1, index.index(4350176240L));
+    Assertions.assertEquals(0, index.index(4567120880L));
+    Assertions.assertEquals(0, index.indexOf(4567120880L));
+    Assertions.assertEquals(2, index.size());
+    Assertions.assertEquals(4350176240L, index.key(1));
+  }
+
+  @Test
+  void survivesGrowth() {
+    LongIndex index = new LongIndex(2);
+    for (int i = 0; i < 10_000; i++) {
+      Assertions.assertEquals(i, index.index(4_000_000_000L + i * 8L));
+    }
+    for (int i = 0; i < 10_000; i++) {
+      Assertions.assertEquals(i, index.indexOf(4_000_000_000L + i * 8L));
+      Assertions.assertEquals(4_000_000_000L + i * 8L, index.key(i));
+    }
+    Assertions.assertEquals(-1, index.indexOf(-1L));
+  }
+}
@@ -0,0 +1,75 @@
+package io.sisu.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RingBufferTest {
+
+  @Test
+  void boundedAndFifo() {
+    RingBuffer<Integer> ring = new RingBuffer<>(5);
+    Assertions.assertEquals(8, ring.capacity());
+    for (int i = 0; i < 8; i++) {
+      Assertions.assertTrue(ring.offer(i));
+    }
+    Assertions.assertFalse(ring.offer(8));
+    Assertions.assertEquals(8, ring.size());
+    for (int i = 0; i < 8; i++) {
+      Assertions.assertEquals(i, ring.poll());
+    }
+    Assertions.assertNull(ring.poll());
+    Assertions.assertEquals(0, ring.size());
+  }
+
+  @Test
+  void manyProducersLoseNothing() throws Exception {
+    final int producers = 4;
+    final int perProducer = 100_000;
+    RingBuffer<Long> ring = new RingBuffer<>(1024);
+    AtomicLong sum = new AtomicLong();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final long base = p * (long) perProducer;
+      Thread t =
+          new Thread(
+              () -> {
+                for (long i = 0; i < perProducer; i++) {
+                  while (!ring.offer(base + i)) {
+                    Thread.yield();
+                  }
+                }
+              });
+      threads.add(t);
+      t.start();
+    }
+
+    // Each producer's items must come out in the order they went in.
+    long[] last = new long[producers];
+    Arrays.fill(last, -1);
+    int received = 0;
+    while (received < producers * perProducer) {
+      Long item = ring.poll();
+      if (item == null) {
+        Thread.yield();
+        continue;
+      }
+      int producer = (int) (item / perProducer);
+      Assertions.assertTrue(item > last[producer]);
+      last[producer] = item;
+      sum.addAndGet(item);
+      received++;
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    long n = producers * (long) perProducer;
+    Assertions.assertEquals(n * (n - 1) / 2, sum.get());
+    Assertions.assertNull(ring.poll());
+  }
+}